@@ -0,0 +1,109 @@
+package ca.ubc.cs317.dict.bench;
+
+import ca.ubc.cs317.dict.cache.CacheStats;
+import ca.ubc.cs317.dict.cache.TinyLfuCache;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures throughput and hit ratio of TinyLfuCache against a synchronized LRU map, from 1 to 64 threads. Each thread
+ * looks up keys drawn from a Zipf distribution, the way popular words are looked up, and a share of the lookups walk
+ * through keys that are never repeated, the way batch jobs over rare words do. A miss is followed by a put, as a
+ * caching client would do after querying the server.
+ *
+ * Usage: java ca.ubc.cs317.dict.bench.CacheBenchmark [cache-size] [key-count] [scan-percent] [seconds-per-run]
+ */
+public class CacheBenchmark {
+
+    /** The operations a benchmarked cache must support. */
+    private interface Cache {
+        String get(Integer key);
+        void put(Integer key, String value);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int cacheSize = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int keyCount = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        int scanPercent = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+        ZipfDistribution distribution = new ZipfDistribution(keyCount, 1.0);
+
+        System.out.printf("cache size %d, %d keys, %d%% scan lookups, %d s per run%n%n", cacheSize, keyCount,
+                scanPercent, seconds);
+        System.out.println("threads  cache      ops/s         hit ratio  admitted   rejected");
+        for (int threads = 1; threads <= 64; threads *= 2) {
+            TinyLfuCache<Integer, String> tinyLfu = new TinyLfuCache<>(cacheSize);
+            Cache tinyLfuCache = new Cache() {
+                public String get(Integer key) { return tinyLfu.get(key); }
+                public void put(Integer key, String value) { tinyLfu.put(key, value); }
+            };
+            Map<Integer, String> lru = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
+                    return size() > cacheSize;
+                }
+            });
+            Cache lruCache = new Cache() {
+                public String get(Integer key) { return lru.get(key); }
+                public void put(Integer key, String value) { lru.put(key, value); }
+            };
+
+            long[] lruResult = run(lruCache, threads, distribution, keyCount, scanPercent, seconds);
+            System.out.printf("%7d  LRU      %12.0f  %12.3f%n", threads, lruResult[0] / (double) seconds,
+                    lruResult[1] / (double) lruResult[0]);
+
+            long[] tinyLfuResult = run(tinyLfuCache, threads, distribution, keyCount, scanPercent, seconds);
+            CacheStats stats = tinyLfu.stats();
+            System.out.printf("%7d  TinyLFU  %12.0f  %12.3f  %9d  %9d%n", threads,
+                    tinyLfuResult[0] / (double) seconds, tinyLfuResult[1] / (double) tinyLfuResult[0],
+                    stats.getAdmittedCount(), stats.getRejectedCount());
+        }
+    }
+
+    /** Runs lookups from several threads for a fixed time.
+     *
+     * @return The number of lookups and the number of hits.
+     */
+    private static long[] run(Cache cache, int threads, ZipfDistribution distribution, int keyCount, int scanPercent,
+                              int seconds) throws InterruptedException {
+        // Scan keys are outside the Zipf key range, so they are never looked up twice
+        AtomicLong scanKeys = new AtomicLong(keyCount);
+        LongAdder operations = new LongAdder();
+        LongAdder hits = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(() -> {
+                Random random = new Random();
+                long localOperations = 0;
+                long localHits = 0;
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                while ((localOperations & 0xff) != 0 || System.nanoTime() < deadline) {
+                    Integer key = random.nextInt(100) < scanPercent
+                            ? (int) scanKeys.getAndIncrement() : distribution.sample(random);
+                    if (cache.get(key) != null)
+                        localHits++;
+                    else
+                        cache.put(key, "definition");
+                    localOperations++;
+                }
+                operations.add(localOperations);
+                hits.add(localHits);
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers)
+            worker.join();
+        return new long[]{operations.sum(), hits.sum()};
+    }
+}
@@ -0,0 +1,247 @@
+package ca.ubc.cs317.dict.bench;
+
+import ca.ubc.cs317.dict.model.Database;
+import ca.ubc.cs317.dict.model.MatchingStrategy;
+import ca.ubc.cs317.dict.net.DictConnectionException;
+import ca.ubc.cs317.dict.net.DictStringParser;
+import ca.ubc.cs317.dict.net.DictionaryConnection;
+import ca.ubc.cs317.dict.net.WireCapture;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a WireCapture through DictionaryConnection without a server, to compare the throughput of the client's
+ * parsing code across versions. For each captured connection, the commands it sent are issued again through the
+ * corresponding DictionaryConnection method (getDefinitions, getMatchList, getDatabaseList or getStrategyList), and
+ * the connection reads the captured replies. Commands are recognized from the captured bytes, so a capture made by
+ * one version of the client can be replayed by another.
+ *
+ * By default replies are available immediately and connections are replayed one after the other, measuring the
+ * parsing code alone. With --paced, connections are replayed concurrently and each chunk of a reply only becomes
+ * readable at the time it was originally received, reproducing the original timing.
+ *
+ * Usage: java ca.ubc.cs317.dict.bench.CaptureReplay capture-file [--paced] [--iterations n]
+ */
+public class CaptureReplay {
+
+    /** The traffic of one captured connection. */
+    private static class Stream {
+        final List<String> commands = new ArrayList<>();
+        final List<WireCapture.Record> replies = new ArrayList<>();
+        long replyBytes = 0;
+        byte[] replyData;
+    }
+
+    /** Counts of what a replay did. */
+    private static class Tally {
+        long commands;
+        long definitions;
+        long matches;
+        long errors;
+
+        void add(Tally other) {
+            commands += other.commands;
+            definitions += other.definitions;
+            matches += other.matches;
+            errors += other.errors;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: CaptureReplay capture-file [--paced] [--iterations n]");
+            System.exit(1);
+        }
+        boolean paced = false;
+        int iterations = 20;
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--paced": paced = true; break;
+                case "--iterations": iterations = Integer.parseInt(args[++i]); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        Collection<Stream> streams = load(WireCapture.read(Paths.get(args[0])));
+        long replyBytes = 0;
+        long duration = 0;
+        for (Stream stream : streams) {
+            replyBytes += stream.replyBytes;
+            if (!stream.replies.isEmpty())
+                duration = Math.max(duration, stream.replies.get(stream.replies.size() - 1).getTimeMicros());
+        }
+        System.out.printf("%d connections, %.1f KiB of replies, captured over %.1f s%n", streams.size(),
+                replyBytes / 1024.0, duration / 1e6);
+
+        if (paced) {
+            long start = System.nanoTime();
+            Tally tally = replayPaced(streams);
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("paced replay: %d commands in %.1f s (captured %.1f s), %d definitions, %d matches, "
+                    + "%d errors%n", tally.commands, elapsed / 1e9, duration / 1e6, tally.definitions, tally.matches,
+                    tally.errors);
+            return;
+        }
+
+        // The first iterations only warm up the JIT
+        int warmup = Math.max(1, iterations / 4);
+        for (int i = 0; i < warmup; i++)
+            for (Stream stream : streams)
+                replay(stream, new ByteArrayInputStream(stream.replyData));
+        Tally tally = new Tally();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++)
+            for (Stream stream : streams)
+                tally.add(replay(stream, new ByteArrayInputStream(stream.replyData)));
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("full speed: %d iterations, %.0f commands/s, %.1f MiB/s of replies%n", iterations,
+                tally.commands / (elapsed / 1e9), replyBytes * (double) iterations / (1 << 20) / (elapsed / 1e9));
+        System.out.printf("per iteration: %d commands, %d definitions, %d matches, %d errors%n",
+                tally.commands / iterations, tally.definitions / iterations, tally.matches / iterations,
+                tally.errors / iterations);
+    }
+
+    /** Splits the records of a capture by connection, and the bytes each connection sent into command lines. */
+    private static Collection<Stream> load(List<WireCapture.Record> records) {
+        Map<Integer, Stream> streams = new TreeMap<>();
+        Map<Integer, ByteArrayOutputStream> sent = new HashMap<>();
+        for (WireCapture.Record record : records) {
+            Stream stream = streams.computeIfAbsent(record.getStream(), s -> new Stream());
+            if (record.isSent())
+                sent.computeIfAbsent(record.getStream(), s -> new ByteArrayOutputStream())
+                        .write(record.getData(), 0, record.getData().length);
+            else {
+                stream.replies.add(record);
+                stream.replyBytes += record.getData().length;
+            }
+        }
+        sent.forEach((id, bytes) -> {
+            for (String line : bytes.toString(StandardCharsets.UTF_8).split("\r\n"))
+                if (!line.isEmpty())
+                    streams.get(id).commands.add(line);
+        });
+        for (Stream stream : streams.values())
+            stream.replyData = concatenate(stream);
+        return streams.values();
+    }
+
+    private static byte[] concatenate(Stream stream) {
+        byte[] bytes = new byte[(int) stream.replyBytes];
+        int position = 0;
+        for (WireCapture.Record record : stream.replies) {
+            System.arraycopy(record.getData(), 0, bytes, position, record.getData().length);
+            position += record.getData().length;
+        }
+        return bytes;
+    }
+
+    private static Tally replayPaced(Collection<Stream> streams) throws InterruptedException {
+        long start = System.nanoTime();
+        List<Tally> tallies = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (Stream stream : streams) {
+            Thread thread = new Thread(() -> tallies.add(replay(stream, new PacedInputStream(stream.replies, start))));
+            thread.start();
+            threads.add(thread);
+        }
+        Tally total = new Tally();
+        for (Thread thread : threads)
+            thread.join();
+        for (Tally tally : tallies)
+            total.add(tally);
+        return total;
+    }
+
+    /** Issues the commands of a captured connection against its captured replies. */
+    private static Tally replay(Stream stream, InputStream replies) {
+        Tally tally = new Tally();
+        DictionaryConnection connection;
+        try {
+            connection = new DictionaryConnection(replies, OutputStream.nullOutputStream());
+        } catch (DictConnectionException e) {
+            tally.errors++;
+            return tally;
+        }
+
+        for (String command : stream.commands) {
+            String[] atoms = DictStringParser.splitAtoms(command);
+            if (atoms.length == 0)
+                continue;
+            String verb = atoms[0].toUpperCase(Locale.ROOT);
+            if (verb.equals("QUIT")) {
+                connection.close();
+                break;
+            }
+            tally.commands++;
+            try {
+                if (verb.equals("DEFINE") && atoms.length >= 3)
+                    tally.definitions += connection.getDefinitions(atoms[2], new Database(atoms[1], atoms[1])).size();
+                else if (verb.equals("MATCH") && atoms.length >= 4)
+                    tally.matches += connection.getMatchList(atoms[3], new MatchingStrategy(atoms[2], atoms[2]),
+                            new Database(atoms[1], atoms[1])).size();
+                else if (command.equalsIgnoreCase("SHOW DB"))
+                    connection.getDatabaseList();
+                else if (command.equalsIgnoreCase("SHOW STRATEGIES"))
+                    connection.getStrategyList();
+                else {
+                    // The reply can't be parsed without knowing the command, so the rest of the stream is unusable
+                    System.err.println("Stopping replay at unsupported command: " + command);
+                    break;
+                }
+            } catch (DictConnectionException e) {
+                tally.errors++;
+                // Only a negative reply leaves the stream in sync with the commands
+                if (!e.isNegativeReply())
+                    break;
+            }
+        }
+        return tally;
+    }
+
+    /** Input stream making each captured chunk readable only once the time it was received has come again. */
+    private static class PacedInputStream extends InputStream {
+        private final List<WireCapture.Record> records;
+        private final long start;
+        private int index = 0;
+        private int position = 0;
+
+        PacedInputStream(List<WireCapture.Record> records, long start) {
+            this.records = records;
+            this.start = start;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (index == records.size())
+                return -1;
+            WireCapture.Record record = records.get(index);
+            long due = start + TimeUnit.MICROSECONDS.toNanos(record.getTimeMicros());
+            for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime())
+                LockSupport.parkNanos(wait);
+
+            int n = Math.min(length, record.getData().length - position);
+            System.arraycopy(record.getData(), position, buffer, offset, n);
+            position += n;
+            if (position == record.getData().length) {
+                index++;
+                position = 0;
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package ca.ubc.cs317.dict.bench;
+
+import ca.ubc.cs317.dict.cache.CompressedDefinitionStore;
+import ca.ubc.cs317.dict.cache.DefinitionCodec;
+import ca.ubc.cs317.dict.cache.DefinitionCompressor;
+import ca.ubc.cs317.dict.model.Database;
+import ca.ubc.cs317.dict.model.Definition;
+import ca.ubc.cs317.dict.net.DictConnectionException;
+import ca.ubc.cs317.dict.net.DictionaryConnection;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Reports how much trained-dictionary compression shrinks definition bodies and how long decompression takes, both
+ * for single bodies and for whole lookups held in a CompressedDefinitionStore. Definitions are fetched from a DICT
+ * server for every word in a file (one word per line); half of the lookups are used to train the dictionary and the
+ * other half to measure it.
+ *
+ * Usage: java ca.ubc.cs317.dict.bench.CompressionBenchmark host[:port] words-file [dictionary-size]
+ */
+public class CompressionBenchmark {
+
+    public static void main(String[] args) throws IOException, DictConnectionException {
+        if (args.length < 2) {
+            System.err.println("Usage: CompressionBenchmark host[:port] words-file [dictionary-size]");
+            System.exit(1);
+        }
+        int dictionarySize = args.length > 2 ? Integer.parseInt(args[2]) : DefinitionCompressor.MAX_DICTIONARY_SIZE;
+
+        Map<String, List<Definition>> lookups =
+                fetchLookups(args[0], Files.readAllLines(Paths.get(args[1]), StandardCharsets.UTF_8));
+        if (lookups.size() < 2) {
+            System.err.println("Not enough definitions retrieved");
+            System.exit(1);
+        }
+        List<String> words = new ArrayList<>(lookups.keySet());
+        Collections.shuffle(words, new Random(42));
+        List<String> trainingWords = words.subList(0, words.size() / 2);
+        List<String> measuredWords = words.subList(words.size() / 2, words.size());
+        List<String> training = bodies(lookups, trainingWords);
+        List<String> measured = bodies(lookups, measuredWords);
+
+        DefinitionCompressor plain = new DefinitionCompressor(new byte[0]);
+        DefinitionCompressor trained = DefinitionCompressor.train(training, dictionarySize);
+        report("no dictionary", plain, measured);
+        report("trained dictionary", trained, measured);
+        reportStore("store, no dictionary", args[0], plain, lookups, measuredWords);
+        reportStore("store, trained dictionary", args[0], trained, lookups, measuredWords);
+    }
+
+    private static List<String> bodies(Map<String, List<Definition>> lookups, List<String> words) {
+        List<String> bodies = new ArrayList<>();
+        for (String word : words)
+            for (Definition definition : lookups.get(word))
+                bodies.add(definition.getDefinition());
+        return bodies;
+    }
+
+    private static Map<String, List<Definition>> fetchLookups(String server, List<String> words)
+            throws DictConnectionException {
+        DictionaryConnection connection;
+        if (server.contains(":")) {
+            String[] serverData = server.split(":", 2);
+            connection = new DictionaryConnection(serverData[0], Integer.parseInt(serverData[1]));
+        } else
+            connection = new DictionaryConnection(server);
+
+        Map<String, List<Definition>> lookups = new LinkedHashMap<>();
+        Database all = new Database("*", "All databases");
+        try {
+            for (String word : words) {
+                if (word.isBlank())
+                    continue;
+                List<Definition> definitions = new ArrayList<>();
+                for (Definition definition : connection.getDefinitions(word.trim(), all))
+                    if (definition.getDefinition() != null)
+                        definitions.add(definition);
+                if (!definitions.isEmpty())
+                    lookups.put(word.trim(), definitions);
+            }
+        } finally {
+            connection.close();
+        }
+        return lookups;
+    }
+
+    private static void report(String label, DefinitionCompressor compressor, List<String> bodies) {
+        long raw = 0;
+        long compressed = 0;
+        List<byte[]> compressedBodies = new ArrayList<>(bodies.size());
+        for (String body : bodies) {
+            byte[] data = compressor.compress(body);
+            compressedBodies.add(data);
+            raw += body.getBytes(StandardCharsets.UTF_8).length;
+            compressed += data.length;
+        }
+
+        // Warm up the decompression path before timing it
+        for (int round = 0; round < 3; round++)
+            for (byte[] data : compressedBodies)
+                compressor.decompress(data);
+
+        long[] latencies = new long[compressedBodies.size()];
+        for (int i = 0; i < latencies.length; i++) {
+            long start = System.nanoTime();
+            compressor.decompress(compressedBodies.get(i));
+            latencies[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(latencies);
+
+        System.out.printf("%s:%n", label);
+        System.out.printf("  bodies:             %d%n", bodies.size());
+        System.out.printf("  raw bytes:          %d%n", raw);
+        System.out.printf("  compressed bytes:   %d (dictionary %d)%n", compressed, compressor.getDictionary().length);
+        System.out.printf("  ratio:              %.2fx%n", (double) raw / compressed);
+        System.out.printf("  decode p50/p99/max: %.1f / %.1f / %.1f us%n", latencies[latencies.length / 2] / 1000.0,
+                latencies[(int) (latencies.length * 0.99)] / 1000.0, latencies[latencies.length - 1] / 1000.0);
+    }
+
+    private static void reportStore(String label, String server, DefinitionCompressor compressor,
+                                    Map<String, List<Definition>> lookups, List<String> words) {
+        CompressedDefinitionStore store = new CompressedDefinitionStore(compressor, Long.MAX_VALUE);
+        long encoded = 0;
+        for (String word : words) {
+            store.put(server, "*", word, lookups.get(word));
+            encoded += DefinitionCodec.encode(lookups.get(word)).length;
+        }
+
+        // Warm up the lookup path before timing it
+        for (int round = 0; round < 3; round++)
+            for (String word : words)
+                store.get(server, "*", word);
+
+        long[] latencies = new long[words.size()];
+        for (int i = 0; i < latencies.length; i++) {
+            long start = System.nanoTime();
+            store.get(server, "*", words.get(i));
+            latencies[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(latencies);
+
+        long budget = 32L << 20;
+        System.out.printf("%s:%n", label);
+        System.out.printf("  lookups:            %d%n", store.size());
+        System.out.printf("  encoded bytes:      %d%n", encoded);
+        System.out.printf("  compressed bytes:   %d%n", store.getCompressedBytes());
+        System.out.printf("  ratio:              %.2fx%n", store.getCompressionRatio());
+        System.out.printf("  lookups in 32 MiB:  %d (%d uncompressed)%n",
+                budget * store.size() / store.getCompressedBytes(), budget * store.size() / encoded);
+        System.out.printf("  get p50/p99/max:    %.1f / %.1f / %.1f us%n", latencies[latencies.length / 2] / 1000.0,
+                latencies[(int) (latencies.length * 0.99)] / 1000.0, latencies[latencies.length - 1] / 1000.0);
+    }
+}
@@ -0,0 +1,89 @@
+package ca.ubc.cs317.dict.bench;
+
+import ca.ubc.cs317.dict.model.Definition;
+
+import java.util.Random;
+
+/**
+ * Compares the heap used per cached definition by the compact Definition representation against the previous layout
+ * of three separate Strings per definition.
+ *
+ * Usage: java ca.ubc.cs317.dict.bench.DefinitionMemoryBenchmark [count]
+ */
+public class DefinitionMemoryBenchmark {
+
+    private static final String[] DATABASES = {"wn", "gcide", "moby-thesaurus", "foldoc", "jargon", "vera", "devil"};
+    private static final String[] FRAGMENTS = {
+            "n 1: ", "v 1: ", "adj 1: ", "[syn: {", "}]", "See also ", "From WordNet (r) 3.0 (2006) [wn]: ",
+            "a unit of language ", "the act of ", "having the quality of ", "caf\u00e9 ", "na\u00efve ", "\u00fcber ",
+            "used figuratively ", "(obsolete) ", "\"a quoted usage example\" ", "\n      ",
+    };
+
+    /** The layout Definition had before database ids and UTF-8 bodies, kept here for comparison only. */
+    private static class StringDefinition {
+        private final String word;
+        private final String databaseName;
+        private final String definition;
+
+        StringDefinition(String word, String databaseName, String definition) {
+            this.word = word;
+            this.databaseName = databaseName;
+            this.definition = definition;
+        }
+    }
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+
+        long legacy = measure(count, (word, db, body) -> new StringDefinition(word, db, body));
+        long compact = measure(count, Definition::new);
+
+        System.out.printf("definitions:            %d%n", count);
+        System.out.printf("String layout:          %.1f bytes/definition%n", (double) legacy / count);
+        System.out.printf("compact layout:         %.1f bytes/definition%n", (double) compact / count);
+        System.out.printf("saving:                 %.1f%%%n", 100.0 * (legacy - compact) / legacy);
+    }
+
+    private interface Factory {
+        Object create(String word, String databaseName, String body);
+    }
+
+    private static long measure(int count, Factory factory) {
+        // Same seed for both layouts so they hold exactly the same data
+        Random random = new Random(42);
+        Object[] retained = new Object[count];
+        long before = usedHeap();
+        for (int i = 0; i < count; i++) {
+            String word = "word" + i;
+            // A fresh String per entry, as the connection parses a new one out of every 151 line
+            String databaseName = new String(DATABASES[random.nextInt(DATABASES.length)]);
+            retained[i] = factory.create(word, databaseName, randomBody(random, word));
+        }
+        long after = usedHeap();
+        // Keep the retained objects reachable until after the measurement
+        if (retained[count - 1] == null)
+            throw new IllegalStateException();
+        return after - before;
+    }
+
+    private static String randomBody(Random random, String word) {
+        StringBuilder body = new StringBuilder(word).append('\n');
+        int fragments = 5 + random.nextInt(40);
+        for (int i = 0; i < fragments; i++)
+            body.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+        return body.toString();
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,293 @@
+package ca.ubc.cs317.dict.bench;
+
+import ca.ubc.cs317.dict.model.Database;
+import ca.ubc.cs317.dict.model.MatchingStrategy;
+import ca.ubc.cs317.dict.net.DictConnectionException;
+import ca.ubc.cs317.dict.net.DictionaryConnection;
+import ca.ubc.cs317.dict.net.WireCapture;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop load generator for DictionaryConnection. Requests are scheduled at a fixed rate regardless of how fast the
+ * server answers, and their latency is measured from the time they were scheduled to be sent, not from the time a
+ * connection became free to send them. This avoids coordinated omission: a stalled server shows up as high latency for
+ * every request that queued behind the stall, instead of as a handful of slow samples.
+ *
+ * Usage: java ca.ubc.cs317.dict.bench.LoadGenerator [options]
+ *   --server host[:port]   DICT server (default localhost)
+ *   --connections n        number of connections, each used by one worker (default 4)
+ *   --rate n               requests per second (default 100)
+ *   --duration s           measured seconds (default 30)
+ *   --warmup s             seconds of load before measuring (default 5)
+ *   --match-ratio r        fraction of requests that are MATCH instead of DEFINE (default 0.2)
+ *   --strategy name        MATCH strategy (default prefix)
+ *   --database name        database (default *)
+ *   --words file           one word per line, optionally followed by its frequency; words without frequency are
+ *                          ranked by their position in the file and drawn from a Zipf distribution
+ *   --zipf s               Zipf exponent (default 1.0)
+ *   --capture file         record all traffic to a capture file, for CaptureReplay
+ */
+public class LoadGenerator {
+
+    private static final String[] DEFAULT_WORDS = {
+            "the", "time", "person", "year", "way", "day", "thing", "man", "world", "life", "hand", "part", "child",
+            "eye", "woman", "place", "work", "week", "case", "point", "government", "company", "number", "group",
+            "problem", "fact", "house", "water", "dictionary", "network", "socket", "protocol", "server", "client",
+            "latency", "cache", "zebra", "quixotic", "serendipity", "ephemeral", "ubiquitous", "sesquipedalian",
+    };
+
+    private static final String OK = "ok";
+    private static final String IO_ERROR = "io error";
+
+    private String host = "localhost";
+    private int port = 2628;
+    private int connections = 4;
+    private double rate = 100;
+    private int durationSeconds = 30;
+    private int warmupSeconds = 5;
+    private double matchRatio = 0.2;
+    private String strategy = "prefix";
+    private String database = "*";
+    private double zipfExponent = 1.0;
+    private String wordsFile = null;
+    private String captureFile = null;
+    private WireCapture capture = null;
+
+    private String[] words = DEFAULT_WORDS;
+    private ZipfDistribution distribution;
+
+    /** A request scheduled by the dispatcher. */
+    private static class Request {
+        final long intendedStart;
+        final boolean match;
+        final String word;
+        final boolean measured;
+
+        Request(long intendedStart, boolean match, String word, boolean measured) {
+            this.intendedStart = intendedStart;
+            this.match = match;
+            this.word = word;
+            this.measured = measured;
+        }
+    }
+
+    /** Latencies and outcomes recorded by one worker; only read once the worker is done. */
+    private static class Results {
+        long[] latencies = new long[1024];
+        long[] serviceTimes = new long[1024];
+        int count = 0;
+        final Map<String, Integer> outcomes = new TreeMap<>();
+
+        void record(long latency, long serviceTime, String outcome) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+                serviceTimes = Arrays.copyOf(serviceTimes, count * 2);
+            }
+            latencies[count] = latency;
+            serviceTimes[count] = serviceTime;
+            count++;
+            outcomes.merge(outcome, 1, Integer::sum);
+        }
+
+        void merge(Results other) {
+            latencies = Arrays.copyOf(latencies, count + other.count);
+            serviceTimes = Arrays.copyOf(serviceTimes, count + other.count);
+            System.arraycopy(other.latencies, 0, latencies, count, other.count);
+            System.arraycopy(other.serviceTimes, 0, serviceTimes, count, other.count);
+            count += other.count;
+            other.outcomes.forEach((outcome, n) -> outcomes.merge(outcome, n, Integer::sum));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        generator.parseArguments(args);
+        generator.loadWords();
+        generator.run();
+    }
+
+    private void parseArguments(String[] args) {
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--server":
+                    if (value.contains(":")) {
+                        String[] serverData = value.split(":", 2);
+                        host = serverData[0];
+                        port = Integer.parseInt(serverData[1]);
+                    } else
+                        host = value;
+                    break;
+                case "--connections": connections = Integer.parseInt(value); break;
+                case "--rate": rate = Double.parseDouble(value); break;
+                case "--duration": durationSeconds = Integer.parseInt(value); break;
+                case "--warmup": warmupSeconds = Integer.parseInt(value); break;
+                case "--match-ratio": matchRatio = Double.parseDouble(value); break;
+                case "--strategy": strategy = value; break;
+                case "--database": database = value; break;
+                case "--words": wordsFile = value; break;
+                case "--zipf": zipfExponent = Double.parseDouble(value); break;
+                case "--capture": captureFile = value; break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+    }
+
+    private void loadWords() throws IOException {
+        if (wordsFile == null) {
+            distribution = new ZipfDistribution(words.length, zipfExponent);
+            return;
+        }
+
+        List<String> fileWords = new ArrayList<>();
+        List<Double> frequencies = new ArrayList<>();
+        boolean explicitFrequencies = true;
+        for (String line : Files.readAllLines(Paths.get(wordsFile), StandardCharsets.UTF_8)) {
+            String[] fields = line.trim().split("\\s+");
+            if (fields[0].isEmpty())
+                continue;
+            fileWords.add(fields[0]);
+            if (fields.length > 1)
+                frequencies.add(Double.parseDouble(fields[1]));
+            else
+                explicitFrequencies = false;
+        }
+        words = fileWords.toArray(new String[0]);
+        if (explicitFrequencies) {
+            double[] weights = new double[frequencies.size()];
+            for (int i = 0; i < weights.length; i++)
+                weights[i] = frequencies.get(i);
+            distribution = new ZipfDistribution(weights);
+        } else
+            distribution = new ZipfDistribution(words.length, zipfExponent);
+    }
+
+    private void run() throws InterruptedException, ExecutionException, IOException {
+        if (captureFile != null)
+            capture = WireCapture.create(Paths.get(captureFile));
+        Database db = new Database(database, database);
+        MatchingStrategy matchingStrategy = new MatchingStrategy(strategy, strategy);
+        BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+        Request poison = new Request(0, false, null, false);
+
+        ExecutorService workers = Executors.newFixedThreadPool(connections);
+        List<Future<Results>> futures = new ArrayList<>();
+        for (int i = 0; i < connections; i++)
+            futures.add(workers.submit(() -> work(queue, poison, db, matchingStrategy)));
+
+        // Dispatch on a fixed schedule; the schedule never waits for replies
+        Random random = new Random();
+        long interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        long measureStart = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long end = measureStart + TimeUnit.SECONDS.toNanos(durationSeconds);
+        for (long next = start; next < end; next += interval) {
+            long wait = next - System.nanoTime();
+            if (wait > 0)
+                LockSupport.parkNanos(wait);
+            queue.add(new Request(next, random.nextDouble() < matchRatio,
+                    words[distribution.sample(random)], next >= measureStart));
+        }
+        for (int i = 0; i < connections; i++)
+            queue.add(poison);
+        long dispatchEnd = System.nanoTime();
+
+        Results total = new Results();
+        for (Future<Results> future : futures)
+            total.merge(future.get());
+        long drained = System.nanoTime();
+        workers.shutdown();
+        if (capture != null)
+            capture.close();
+
+        report(total, Math.max(end, drained) - measureStart, dispatchEnd - measureStart);
+    }
+
+    private Results work(BlockingQueue<Request> queue, Request poison, Database db, MatchingStrategy matchingStrategy)
+            throws InterruptedException {
+        Results results = new Results();
+        DictionaryConnection connection = null;
+        while (true) {
+            Request request = queue.take();
+            if (request == poison)
+                break;
+
+            long actualStart = System.nanoTime();
+            String outcome = OK;
+            try {
+                if (connection == null)
+                    connection = new DictionaryConnection(host, port, capture);
+                if (request.match)
+                    connection.getMatchList(request.word, matchingStrategy, db);
+                else
+                    connection.getDefinitions(request.word, db);
+            } catch (DictConnectionException e) {
+                if (e.isNegativeReply()) {
+                    // The server replied with an error status; the connection is still usable
+                    outcome = String.valueOf(e.getStatusCode());
+                } else {
+                    outcome = IO_ERROR;
+                    discard(connection);
+                    connection = null;
+                }
+            } catch (RuntimeException e) {
+                // A reply the client could not handle leaves the connection in an unknown state
+                outcome = IO_ERROR;
+                discard(connection);
+                connection = null;
+            }
+            long now = System.nanoTime();
+            if (request.measured)
+                results.record(now - request.intendedStart, now - actualStart, outcome);
+        }
+        discard(connection);
+        return results;
+    }
+
+    /** Closes a connection that will not be used again, so its socket isn't leaked by every reconnect.
+     *
+     * @param connection The connection to close, or null if there is none.
+     */
+    private static void discard(DictionaryConnection connection) {
+        if (connection != null)
+            connection.close();
+    }
+
+    private void report(Results total, long elapsed, long scheduled) {
+        long[] latencies = Arrays.copyOf(total.latencies, total.count);
+        long[] serviceTimes = Arrays.copyOf(total.serviceTimes, total.count);
+        Arrays.sort(latencies);
+        Arrays.sort(serviceTimes);
+
+        System.out.printf("server:          %s:%d, %d connections%n", host, port, connections);
+        System.out.printf("target rate:     %.1f req/s (%.0f%% MATCH %s, database %s)%n", rate, matchRatio * 100,
+                strategy, database);
+        System.out.printf("requests:        %d in %.1f s scheduled%n", total.count, scheduled / 1e9);
+        System.out.printf("throughput:      %.1f req/s%n", total.count / (elapsed / 1e9));
+        System.out.println();
+        System.out.println("               response time (ms)   service time (ms)");
+        String[] labels = {"p50", "p90", "p99", "p99.9", "max"};
+        double[] percentiles = {50, 90, 99, 99.9, 100};
+        for (int i = 0; i < labels.length; i++) {
+            System.out.printf("  %-6s       %14.2f %19.2f%n", labels[i],
+                    percentile(latencies, percentiles[i]) / 1e6, percentile(serviceTimes, percentiles[i]) / 1e6);
+        }
+        System.out.println();
+        System.out.println("outcomes:");
+        total.outcomes.forEach((outcome, count) -> System.out.printf("  %-12s %d%n", outcome, count));
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0)
+            return 0;
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+}
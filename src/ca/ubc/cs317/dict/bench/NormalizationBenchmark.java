@@ -0,0 +1,127 @@
+package ca.ubc.cs317.dict.bench;
+
+import ca.ubc.cs317.dict.cache.TinyLfuCache;
+import ca.ubc.cs317.dict.model.WordNormalizer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.text.Normalizer;
+import java.util.*;
+import java.util.function.UnaryOperator;
+
+/**
+ * Reports how much WordNormalizer improves the hit ratio of a word cache, and what normalizing costs. Lookups follow a
+ * Zipf distribution over a vocabulary, and each lookup is spelled the way users type: mostly as is, but sometimes
+ * capitalized, in upper case, with stray whitespace, or with accents entered as combining characters. The same lookups
+ * are replayed against a TinyLfuCache keyed by the raw word and one keyed by the normalized word.
+ *
+ * The vocabulary is read from a file (one word per line), or generated with about one word in six accented.
+ *
+ * Usage: java ca.ubc.cs317.dict.bench.NormalizationBenchmark [cache-size] [lookups] [words-file]
+ */
+public class NormalizationBenchmark {
+
+    // Precomposed accented letters
+    private static final String ACCENTED = "\u00e9\u00e8\u00ea\u00fc\u00f6\u00e4\u00f1\u00e7\u00e0\u00ee";
+
+    // Keeps the measured results alive, so the loops are not optimized away
+    private static volatile long sink;
+
+    public static void main(String[] args) throws IOException {
+        int cacheSize = args.length > 0 ? Integer.parseInt(args[0]) : 5_000;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 2_000_000;
+        List<String> vocabulary = args.length > 2
+                ? Files.readAllLines(Paths.get(args[2]), StandardCharsets.UTF_8) : generateVocabulary(100_000);
+        vocabulary.removeIf(String::isBlank);
+
+        Random random = new Random(42);
+        ZipfDistribution distribution = new ZipfDistribution(vocabulary.size(), 1.0);
+        String[] typed = new String[lookups];
+        for (int i = 0; i < lookups; i++)
+            typed[i] = spell(vocabulary.get(distribution.sample(random)), random);
+
+        System.out.printf("%d words, cache size %d, %d lookups%n%n", vocabulary.size(), cacheSize, lookups);
+        System.out.println("keys        distinct   hit ratio");
+        report("raw", typed, cacheSize, word -> word);
+        report("normalized", typed, cacheSize, WordNormalizer.FOLDING::normalize);
+
+        System.out.println();
+        System.out.println("input                  ns/op   same instance");
+        measure("lower case ASCII", vocabulary.stream().map(w -> w.toLowerCase(Locale.ROOT))
+                .filter(w -> w.chars().allMatch(c -> c < 0x80)).toArray(String[]::new));
+        measure("lower case accented", vocabulary.stream().map(w -> w.toLowerCase(Locale.ROOT))
+                .filter(w -> w.chars().anyMatch(c -> c >= 0x80)).toArray(String[]::new));
+        measure("as typed", typed);
+    }
+
+    private static List<String> generateVocabulary(int size) {
+        Random random = new Random(7);
+        Set<String> words = new LinkedHashSet<>();
+        while (words.size() < size) {
+            StringBuilder word = new StringBuilder();
+            int length = 3 + random.nextInt(8);
+            for (int i = 0; i < length; i++)
+                word.append((char) ('a' + random.nextInt(26)));
+            if (random.nextInt(6) == 0)
+                word.setCharAt(random.nextInt(length), ACCENTED.charAt(random.nextInt(ACCENTED.length())));
+            words.add(word.toString());
+        }
+        return new ArrayList<>(words);
+    }
+
+    /** Returns a word the way a user may type it. */
+    private static String spell(String word, Random random) {
+        int variant = random.nextInt(100);
+        if (variant < 60)
+            return word;
+        if (variant < 80)
+            return word.substring(0, 1).toUpperCase(Locale.ROOT) + word.substring(1);
+        if (variant < 85)
+            return word.toUpperCase(Locale.ROOT);
+        if (variant < 95)
+            return random.nextBoolean() ? word + " " : " " + word;
+        return Normalizer.normalize(word, Normalizer.Form.NFD);
+    }
+
+    private static void report(String label, String[] typed, int cacheSize, UnaryOperator<String> key) {
+        TinyLfuCache<String, String> cache = new TinyLfuCache<>(cacheSize);
+        Set<String> distinct = new HashSet<>();
+        long hits = 0;
+        for (String word : typed) {
+            String k = key.apply(word);
+            distinct.add(k);
+            if (cache.get(k) != null)
+                hits++;
+            else
+                cache.put(k, "definition");
+        }
+        System.out.printf("%-10s  %8d  %10.3f%n", label, distinct.size(), hits / (double) typed.length);
+    }
+
+    private static void measure(String label, String[] words) {
+        // A small sample stays in the CPU caches, so the time measured is normalizing rather than loading the words
+        words = Arrays.copyOf(words, Math.min(words.length, 4096));
+        WordNormalizer normalizer = WordNormalizer.FOLDING;
+        long lengths = 0;
+        // Warm up, then measure
+        for (int round = 0; round < 200; round++)
+            for (String word : words)
+                lengths += normalizer.normalize(word).length();
+        int rounds = 500;
+        long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++)
+            for (String word : words)
+                lengths += normalizer.normalize(word).length();
+        long elapsed = System.nanoTime() - start;
+        sink = lengths;
+
+        long same = 0;
+        for (String word : words)
+            if (normalizer.normalize(word) == word)
+                same++;
+        System.out.printf("%-19s  %8.1f  %13.1f%%%n", label, elapsed / (double) rounds / words.length,
+                100.0 * same / words.length);
+    }
+}
@@ -0,0 +1,63 @@
+package ca.ubc.cs317.dict.bench;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Samples ranks from a Zipf distribution, or from any explicit frequency table, using a precomputed cumulative table
+ * and binary search. Rank 0 is the most frequent.
+ */
+public class ZipfDistribution {
+
+    private final double[] cumulative;
+
+    /** Creates a Zipf distribution over a number of ranks.
+     *
+     * @param size     Number of distinct ranks.
+     * @param exponent Skew of the distribution; 1.0 approximates word frequencies in natural language.
+     */
+    public ZipfDistribution(int size, double exponent) {
+        double[] weights = new double[size];
+        for (int i = 0; i < size; i++)
+            weights[i] = 1.0 / Math.pow(i + 1, exponent);
+        this.cumulative = accumulate(weights);
+    }
+
+    /** Creates a distribution from explicit frequencies, e.g., counts read from a word-frequency file.
+     *
+     * @param frequencies Relative frequency of each rank.
+     */
+    public ZipfDistribution(double[] frequencies) {
+        this.cumulative = accumulate(frequencies);
+    }
+
+    private static double[] accumulate(double[] weights) {
+        if (weights.length == 0)
+            throw new IllegalArgumentException("At least one rank is required");
+        double[] cumulative = new double[weights.length];
+        double sum = 0;
+        for (int i = 0; i < weights.length; i++) {
+            sum += weights[i];
+            cumulative[i] = sum;
+        }
+        for (int i = 0; i < cumulative.length; i++)
+            cumulative[i] /= sum;
+        return cumulative;
+    }
+
+    public int size() {
+        return cumulative.length;
+    }
+
+    /** Draws a rank.
+     *
+     * @param random Source of randomness; callers on different threads should use their own.
+     * @return A rank between 0 (inclusive) and size() (exclusive).
+     */
+    public int sample(Random random) {
+        int index = Arrays.binarySearch(cumulative, random.nextDouble());
+        if (index < 0)
+            index = -index - 1;
+        return Math.min(index, cumulative.length - 1);
+    }
+}
@@ -0,0 +1,67 @@
+package ca.ubc.cs317.dict.cache;
+
+/**
+ * Immutable snapshot of the statistics of a TinyLfuCache.
+ */
+public class CacheStats {
+
+    private final long hitCount;
+    private final long missCount;
+    private final long admittedCount;
+    private final long rejectedCount;
+    private final long evictionCount;
+
+    public CacheStats(long hitCount, long missCount, long admittedCount, long rejectedCount, long evictionCount) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.admittedCount = admittedCount;
+        this.rejectedCount = rejectedCount;
+        this.evictionCount = evictionCount;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /** Returns the number of entries that left the window and replaced an entry of the main space. */
+    public long getAdmittedCount() {
+        return admittedCount;
+    }
+
+    /** Returns the number of entries that left the window and were discarded, being less popular than the entry they
+     * would have replaced.
+     */
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public double getHitRatio() {
+        long requests = hitCount + missCount;
+        return requests == 0 ? 1.0 : (double) hitCount / requests;
+    }
+
+    /** Returns the statistics accumulated between an earlier snapshot and this one.
+     *
+     * @param earlier A snapshot taken before this one.
+     * @return The difference between the two snapshots.
+     */
+    public CacheStats minus(CacheStats earlier) {
+        return new CacheStats(hitCount - earlier.hitCount, missCount - earlier.missCount,
+                admittedCount - earlier.admittedCount, rejectedCount - earlier.rejectedCount,
+                evictionCount - earlier.evictionCount);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("hits=%d misses=%d hitRatio=%.3f admitted=%d rejected=%d evicted=%d",
+                hitCount, missCount, getHitRatio(), admittedCount, rejectedCount, evictionCount);
+    }
+}
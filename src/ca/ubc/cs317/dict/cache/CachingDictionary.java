@@ -0,0 +1,178 @@
+package ca.ubc.cs317.dict.cache;
+
+import ca.ubc.cs317.dict.model.Database;
+import ca.ubc.cs317.dict.model.Definition;
+import ca.ubc.cs317.dict.model.MatchingStrategy;
+import ca.ubc.cs317.dict.model.WordNormalizer;
+import ca.ubc.cs317.dict.net.DictConnectionException;
+import ca.ubc.cs317.dict.net.DictionaryConnectionPool;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Thread-safe dictionary client answering DEFINE and MATCH lookups from TinyLfuCache instances, and going to the
+ * DICT server through a connection pool only on a miss. Definitions can additionally be kept in a
+ * CompressedDefinitionStore, which holds several times more lookups than the in-heap cache in the same memory, and in
+ * a SharedDefinitionCache, so that lookups made by other processes on the same host are hits as well. Definitions
+ * are looked up in that order. Entries of those two tiers are keyed by the server of the pool, so they can outlive the
+ * client and be shared with clients of other servers.
+ *
+ * Words are normalized with the WordNormalizer of the database before being used as keys, so lookups of the same word
+ * typed with a different case, surrounding whitespace or Unicode composition share one cache entry. MATCH patterns are
+ * only normalized for literal strategies, such as prefix; patterns of re or regexp are used as typed.
+ */
+public class CachingDictionary {
+
+    private final DictionaryConnectionPool pool;
+    private final String server;
+    private final TinyLfuCache<String, List<Definition>> definitions;
+    private final TinyLfuCache<String, Set<String>> matches;
+    private final CompressedDefinitionStore compressed;
+    private final SharedDefinitionCache shared;
+
+    /** Creates a client with in-process caches only.
+     *
+     * @param pool       Pool of connections to the DICT server.
+     * @param maxEntries Maximum number of lookups kept by each of the definition and match caches.
+     */
+    public CachingDictionary(DictionaryConnectionPool pool, long maxEntries) {
+        this(pool, maxEntries, null);
+    }
+
+    /** Creates a client whose definition lookups are also shared with other processes.
+     *
+     * @param pool       Pool of connections to the DICT server.
+     * @param maxEntries Maximum number of lookups kept by each of the definition and match caches.
+     * @param shared     Cache shared with other processes, or null.
+     */
+    public CachingDictionary(DictionaryConnectionPool pool, long maxEntries, SharedDefinitionCache shared) {
+        this(pool, maxEntries, null, shared);
+    }
+
+    /** Creates a client with a compressed tier for definitions, whose definition lookups may also be shared with other
+     * processes.
+     *
+     * @param pool       Pool of connections to the DICT server.
+     * @param maxEntries Maximum number of lookups kept by each of the definition and match caches.
+     * @param compressed Store keeping definitions compressed behind the definition cache, or null.
+     * @param shared     Cache shared with other processes, or null.
+     */
+    public CachingDictionary(DictionaryConnectionPool pool, long maxEntries, CompressedDefinitionStore compressed,
+                             SharedDefinitionCache shared) {
+        this.pool = pool;
+        this.server = pool.getServer();
+        this.definitions = new TinyLfuCache<>(maxEntries);
+        this.matches = new TinyLfuCache<>(maxEntries);
+        this.compressed = compressed;
+        this.shared = shared;
+    }
+
+    /** Retrieves all definitions for a word, as DictionaryConnection.getDefinitions does.
+     *
+     * @param word The word whose definition is to be retrieved.
+     * @param database The database to be used to retrieve the definition.
+     * @return An unmodifiable collection of the definitions returned by the server.
+     * @throws DictConnectionException If the lookup is not cached and the server can't be queried.
+     */
+    public Collection<Definition> getDefinitions(String word, Database database) throws DictConnectionException {
+        WordNormalizer normalizer = WordNormalizer.forDatabase(database);
+        String normalized = normalizer.normalize(word);
+        String key = database.getName() + '\0' + normalized;
+        List<Definition> cached = definitions.get(key);
+        if (cached != null)
+            return cached;
+
+        if (compressed != null) {
+            cached = compressed.get(server, database.getName(), normalized);
+            if (cached != null) {
+                cached = Collections.unmodifiableList(cached);
+                definitions.put(key, cached);
+                return cached;
+            }
+        }
+
+        if (shared != null) {
+            cached = shared.get(server, database.getName(), normalized);
+            if (cached != null) {
+                cached = Collections.unmodifiableList(cached);
+                definitions.put(key, cached);
+                if (compressed != null)
+                    compressed.put(server, database.getName(), normalized, cached);
+                return cached;
+            }
+        }
+
+        String query = normalizer.toQuery(word);
+        List<Definition> retrieved = List.copyOf(pool.execute(connection -> connection.getDefinitions(query, database)));
+        definitions.put(key, retrieved);
+        // Every tier keeps the lookup, since the in-heap cache does not report which entries it evicts
+        if (compressed != null)
+            compressed.put(server, database.getName(), normalized, retrieved);
+        if (shared != null)
+            shared.put(server, database.getName(), normalized, retrieved);
+        return retrieved;
+    }
+
+    /** Retrieves the words matching a pattern, as DictionaryConnection.getMatchList does.
+     *
+     * @param word     The word pattern to be matched.
+     * @param strategy The strategy to be used to retrieve the list of matches.
+     * @param database The database to be used to retrieve the matches.
+     * @return An unmodifiable set of the matches returned by the server, in the server's order.
+     * @throws DictConnectionException If the lookup is not cached and the server can't be queried.
+     */
+    public Set<String> getMatchList(String word, MatchingStrategy strategy, Database database) throws DictConnectionException {
+        String key = matchKey(word, strategy, database);
+        Set<String> cached = matches.get(key);
+        if (cached != null)
+            return cached;
+
+        String query = WordNormalizer.forDatabase(database).toPatternQuery(word, strategy.getName());
+        Set<String> retrieved = Collections.unmodifiableSet(
+                pool.execute(connection -> connection.getMatchList(query, strategy, database)));
+        matches.put(key, retrieved);
+        return retrieved;
+    }
+
+    /** Retrieves the words matching a pattern if they are cached, without contacting the server. This lets callers
+     * that read matches some other way, such as through DictionaryConnection.publishMatchList, use the cache too.
+     *
+     * @param word     The word pattern to be matched.
+     * @param strategy The strategy to be used to retrieve the list of matches.
+     * @param database The database to be used to retrieve the matches.
+     * @return An unmodifiable set of the cached matches, or null if the lookup is not cached.
+     */
+    public Set<String> getCachedMatchList(String word, MatchingStrategy strategy, Database database) {
+        return matches.get(matchKey(word, strategy, database));
+    }
+
+    /** Caches the words matching a pattern, retrieved by the caller. Only the complete reply must be cached, since
+     * getMatchList returns cached lists as they are.
+     *
+     * @param word      The word pattern that was matched.
+     * @param strategy  The strategy used to retrieve the list of matches.
+     * @param database  The database used to retrieve the matches.
+     * @param matchList All matches returned by the server, in the server's order.
+     */
+    public void putMatchList(String word, MatchingStrategy strategy, Database database, Set<String> matchList) {
+        matches.put(matchKey(word, strategy, database), Collections.unmodifiableSet(new LinkedHashSet<>(matchList)));
+    }
+
+    private static String matchKey(String word, MatchingStrategy strategy, Database database) {
+        // Only literal patterns are normalized; a regular expression keeps its case
+        return database.getName() + '\0' + strategy.getName() + '\0'
+                + WordNormalizer.forDatabase(database).normalizePattern(word, strategy.getName());
+    }
+
+    public CacheStats getDefinitionStats() {
+        return definitions.stats();
+    }
+
+    public CacheStats getMatchStats() {
+        return matches.stats();
+    }
+}
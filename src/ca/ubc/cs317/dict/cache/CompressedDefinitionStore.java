@@ -0,0 +1,183 @@
+package ca.ubc.cs317.dict.cache;
+
+import ca.ubc.cs317.dict.model.Definition;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * A bounded store of definition lookups whose entries are kept compressed with a shared DefinitionCompressor, both in
+ * memory and when saved to disk. Entries are encoded with DefinitionCodec before being compressed. The budget is
+ * expressed in compressed bytes, so a well-trained dictionary directly translates into more lookups held in the same
+ * space. When the budget is exceeded, least recently used entries are discarded.
+ *
+ * CachingDictionary uses a store as an optional tier behind its in-heap cache. Entries are keyed by server as well as
+ * by database and word, so a store saved by a client survives switching servers.
+ */
+public class CompressedDefinitionStore {
+
+    private static final int FILE_MAGIC = 0x44434432; // "DCD2"
+
+    private final DefinitionCompressor compressor;
+    private final long maxBytes;
+
+    private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long compressedBytes = 0;
+    private long rawBytes = 0;
+
+    /** Creates an empty store.
+     *
+     * @param compressor Compressor used for all entries.
+     * @param maxBytes   Maximum number of compressed bytes held by the store.
+     */
+    public CompressedDefinitionStore(DefinitionCompressor compressor, long maxBytes) {
+        this.compressor = compressor;
+        this.maxBytes = maxBytes;
+    }
+
+    public DefinitionCompressor getCompressor() {
+        return compressor;
+    }
+
+    /** Stores the definitions retrieved for a lookup, replacing any previous entry for the same lookup.
+     *
+     * @param server      Server the lookup was made to, as host:port.
+     * @param database    Name of the database used in the lookup.
+     * @param word        The word looked up.
+     * @param definitions Definitions returned by the server for the lookup.
+     */
+    public void put(String server, String database, String word, Collection<Definition> definitions) {
+        // Compression happens outside the lock, like decompression in get
+        byte[] compressed = compressor.compress(DefinitionCodec.encode(definitions));
+        synchronized (this) {
+            store(key(server, database, word), compressed);
+        }
+    }
+
+    private void store(String key, byte[] compressed) {
+        byte[] previous = entries.put(key, compressed);
+        if (previous != null)
+            account(previous, -1);
+        account(compressed, 1);
+
+        Iterator<byte[]> eldest = entries.values().iterator();
+        while (compressedBytes > maxBytes && eldest.hasNext()) {
+            account(eldest.next(), -1);
+            eldest.remove();
+        }
+    }
+
+    /** Retrieves the definitions stored for a lookup, decompressing them.
+     *
+     * @param server   Server the lookup was made to, as host:port.
+     * @param database Name of the database used in the lookup.
+     * @param word     The word looked up.
+     * @return The stored definitions, or null if the lookup is not in the store.
+     */
+    public List<Definition> get(String server, String database, String word) {
+        byte[] compressed;
+        synchronized (this) {
+            compressed = entries.get(key(server, database, word));
+        }
+        // Decompression happens outside the lock so readers don't serialize on it
+        return compressed == null ? null : DefinitionCodec.decode(word, compressor.decompressBytes(compressed));
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getCompressedBytes() {
+        return compressedBytes;
+    }
+
+    /** Returns the ratio between the uncompressed and compressed size of the stored entries.
+     *
+     * @return The compression ratio of the entries currently held (e.g., 4.0 for entries taking a quarter of their
+     * original size).
+     */
+    public synchronized double getCompressionRatio() {
+        return compressedBytes == 0 ? 1.0 : (double) rawBytes / compressedBytes;
+    }
+
+    /** Creates a store holding the same entries, compressed with a dictionary trained from their bodies. This lets a
+     * store that started without a dictionary, before any definition was known, benefit from one later on.
+     *
+     * @param dictionarySize Maximum size of the dictionary, in bytes.
+     * @return The new store, with the same budget.
+     */
+    public synchronized CompressedDefinitionStore retrain(int dictionarySize) {
+        Map<String, List<Definition>> lookups = new LinkedHashMap<>();
+        List<String> bodies = new ArrayList<>();
+        for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+            List<Definition> definitions = DefinitionCodec.decode("", compressor.decompressBytes(entry.getValue()));
+            lookups.put(entry.getKey(), definitions);
+            for (Definition definition : definitions)
+                if (definition.getDefinition() != null)
+                    bodies.add(definition.getDefinition());
+        }
+
+        CompressedDefinitionStore store = new CompressedDefinitionStore(
+                DefinitionCompressor.train(bodies, dictionarySize), maxBytes);
+        // Entries are added from least to most recently used, so the new store keeps the same order
+        for (Map.Entry<String, List<Definition>> lookup : lookups.entrySet())
+            store.store(lookup.getKey(), store.compressor.compress(DefinitionCodec.encode(lookup.getValue())));
+        return store;
+    }
+
+    private static String key(String server, String database, String word) {
+        return server + '\0' + database + '\0' + word;
+    }
+
+    private void account(byte[] compressed, int sign) {
+        compressedBytes += sign * compressed.length;
+        rawBytes += sign * DefinitionCompressor.originalLength(compressed);
+    }
+
+    /** Saves the dictionary and all entries to a file, still compressed.
+     *
+     * @param file Path of the file to be written.
+     * @throws IOException If the file can't be written.
+     */
+    public synchronized void save(Path file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(FILE_MAGIC);
+            byte[] dictionary = compressor.getDictionary();
+            out.writeInt(dictionary.length);
+            out.write(dictionary);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().length);
+                out.write(entry.getValue());
+            }
+        }
+    }
+
+    /** Loads a store previously saved with {@link #save(Path)}, including its dictionary.
+     *
+     * @param file     Path of the file to be read.
+     * @param maxBytes Maximum number of compressed bytes held by the loaded store.
+     * @return The loaded store.
+     * @throws IOException If the file can't be read or is not a saved store.
+     */
+    public static CompressedDefinitionStore load(Path file, long maxBytes) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != FILE_MAGIC)
+                throw new IOException("Not a definition store: " + file);
+            byte[] dictionary = new byte[in.readInt()];
+            in.readFully(dictionary);
+            CompressedDefinitionStore store = new CompressedDefinitionStore(new DefinitionCompressor(dictionary), maxBytes);
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                byte[] compressed = new byte[in.readInt()];
+                in.readFully(compressed);
+                store.store(key, compressed);
+            }
+            return store;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package ca.ubc.cs317.dict.cache;
+
+import ca.ubc.cs317.dict.model.Definition;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Binary encoding of the definitions returned for a single lookup, used wherever definitions are stored outside the
+ * heap. The word is not encoded, since every definition of a lookup is for the word that was looked up. A definition
+ * without a body is encoded with a negative length, so it decodes without one rather than with an empty body.
+ */
+public final class DefinitionCodec {
+
+    // Length written in place of the body of a definition without one
+    private static final int NO_BODY = -1;
+
+    private DefinitionCodec() {
+    }
+
+    /** Encodes the definitions of a word.
+     *
+     * @param definitions The definitions to be encoded.
+     * @return The encoded definitions.
+     */
+    public static byte[] encode(Collection<Definition> definitions) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(definitions.size());
+            for (Definition definition : definitions) {
+                out.writeUTF(definition.getDatabaseName());
+                String body = definition.getDefinition();
+                if (body == null) {
+                    out.writeInt(NO_BODY);
+                    continue;
+                }
+                byte[] encoded = body.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(encoded.length);
+                out.write(encoded);
+            }
+        } catch (IOException e) {
+            // Writing to a byte array does not fail
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Decodes definitions encoded by {@link #encode(Collection)}.
+     *
+     * @param word    The word the definitions are for.
+     * @param encoded The encoded definitions.
+     * @return The decoded definitions.
+     * @throws IllegalArgumentException If the data is not a valid encoding.
+     */
+    public static List<Definition> decode(String word, byte[] encoded) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+            int count = in.readInt();
+            List<Definition> definitions = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String database = in.readUTF();
+                int length = in.readInt();
+                if (length == NO_BODY) {
+                    definitions.add(new Definition(word, database, null));
+                    continue;
+                }
+                if (length < 0)
+                    throw new IOException("Invalid body length " + length);
+                byte[] body = new byte[length];
+                in.readFully(body);
+                definitions.add(new Definition(word, database, new String(body, StandardCharsets.UTF_8)));
+            }
+            return definitions;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid encoded definitions", e);
+        }
+    }
+}
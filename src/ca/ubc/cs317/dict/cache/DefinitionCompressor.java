@@ -0,0 +1,198 @@
+package ca.ubc.cs317.dict.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses definition bodies with DEFLATE using a preset dictionary trained from a sample of bodies. Definition
+ * bodies are short and share a lot of text (database headers, markup, cross-reference syntax), which a dictionary lets
+ * the compressor reference even in the first bytes of a body.
+ *
+ * Compressed bodies start with the length of the UTF-8 body as a variable-length integer, followed by a raw DEFLATE
+ * stream. Instances are thread-safe.
+ */
+public class DefinitionCompressor {
+
+    /** Largest useful dictionary, since DEFLATE can only refer back 32KiB. */
+    public static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+    private final byte[] dictionary;
+
+    // Deflater and Inflater hold native memory and are expensive to create, so keep one per thread
+    private final ThreadLocal<Deflater> deflaters;
+    private final ThreadLocal<Inflater> inflaters;
+
+    /** Creates a compressor using an existing dictionary, e.g., one previously trained and saved to disk.
+     *
+     * @param dictionary Preset dictionary, possibly empty.
+     */
+    public DefinitionCompressor(byte[] dictionary) {
+        if (dictionary.length > MAX_DICTIONARY_SIZE)
+            dictionary = Arrays.copyOfRange(dictionary, dictionary.length - MAX_DICTIONARY_SIZE, dictionary.length);
+        this.dictionary = dictionary;
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_COMPRESSION, true));
+        this.inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+    }
+
+    /** Builds a dictionary from a sample of definition bodies. Lines and words that occur often are packed into the
+     * dictionary, with the most valuable ones at the end, where DEFLATE can reference them with the shortest distances.
+     *
+     * @param samples       Sample of definition bodies.
+     * @param dictionarySize Maximum size of the dictionary, in bytes.
+     * @return A compressor using the trained dictionary.
+     */
+    public static DefinitionCompressor train(Collection<String> samples, int dictionarySize) {
+        dictionarySize = Math.min(dictionarySize, MAX_DICTIONARY_SIZE);
+
+        // Count whole lines, which capture headers and markup, and words, which fill the remaining space
+        Map<String, Integer> counts = new HashMap<>();
+        for (String sample : samples) {
+            for (String line : sample.split("\\R")) {
+                if (line.isBlank())
+                    continue;
+                counts.merge(line + "\n", 1, Integer::sum);
+                for (String word : line.trim().split("\\s+"))
+                    if (word.length() > 3)
+                        counts.merge(word + " ", 1, Integer::sum);
+            }
+        }
+
+        // Only text that repeats is worth a place in the dictionary; rank it by the bytes it could save
+        List<Map.Entry<String, Integer>> candidates = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : counts.entrySet())
+            if (entry.getValue() > 1)
+                candidates.add(entry);
+        candidates.sort(Comparator.comparingLong((Map.Entry<String, Integer> e) ->
+                (long) e.getValue() * e.getKey().length()).reversed());
+
+        List<byte[]> chosen = new ArrayList<>();
+        int size = 0;
+        for (Map.Entry<String, Integer> entry : candidates) {
+            byte[] bytes = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            if (size + bytes.length > dictionarySize)
+                continue;
+            chosen.add(bytes);
+            size += bytes.length;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+        for (int i = chosen.size() - 1; i >= 0; i--)
+            out.writeBytes(chosen.get(i));
+        return new DefinitionCompressor(out.toByteArray());
+    }
+
+    public byte[] getDictionary() {
+        return dictionary.clone();
+    }
+
+    /** Compresses a definition body.
+     *
+     * @param body The body to be compressed.
+     * @return The compressed body.
+     */
+    public byte[] compress(String body) {
+        return compress(body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Compresses arbitrary data, e.g., several serialized definitions.
+     *
+     * @param input The data to be compressed.
+     * @return The compressed data.
+     */
+    public byte[] compress(byte[] input) {
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        if (dictionary.length > 0)
+            deflater.setDictionary(dictionary);
+        deflater.setInput(input);
+        deflater.finish();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(input.length / 2 + 16);
+        writeVarInt(out, input.length);
+        byte[] buffer = new byte[Math.max(64, input.length / 2)];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buffer);
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    /** Restores a body compressed by this compressor, or one using the same dictionary.
+     *
+     * @param compressed The compressed body.
+     * @return The original body.
+     * @throws IllegalArgumentException If the data is not a valid compressed body for this dictionary.
+     */
+    public String decompress(byte[] compressed) {
+        return new String(decompressBytes(compressed), StandardCharsets.UTF_8);
+    }
+
+    /** Restores data compressed by this compressor, or one using the same dictionary.
+     *
+     * @param compressed The compressed data.
+     * @return The original data.
+     * @throws IllegalArgumentException If the data is not valid compressed data for this dictionary.
+     */
+    public byte[] decompressBytes(byte[] compressed) {
+        int length = originalLength(compressed);
+        int offset = varIntSize(length);
+
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        if (dictionary.length > 0)
+            inflater.setDictionary(dictionary);
+        inflater.setInput(compressed, offset, compressed.length - offset);
+        byte[] output = new byte[length];
+        try {
+            int read = 0;
+            while (read < length) {
+                int n = inflater.inflate(output, read, length - read);
+                if (n == 0 && (inflater.finished() || inflater.needsInput()))
+                    throw new IllegalArgumentException("Truncated compressed data");
+                read += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Invalid compressed data", e);
+        }
+        return output;
+    }
+
+    /** Returns the size data had before being compressed, without decompressing it.
+     *
+     * @param compressed Data compressed by a DefinitionCompressor.
+     * @return The number of bytes the data takes once decompressed.
+     */
+    public static int originalLength(byte[] compressed) {
+        int length = 0;
+        int shift = 0;
+        int offset = 0;
+        byte b;
+        do {
+            b = compressed[offset++];
+            length |= (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return length;
+    }
+
+    private static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7f) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
@@ -0,0 +1,96 @@
+package ca.ubc.cs317.dict.cache;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Approximate, aging frequency counter used by TinyLfuCache to decide whether a new entry is worth keeping over the
+ * entry it would evict. This is a count-min sketch of 4-bit counters, four per key, packed sixteen to a long. When
+ * the number of recorded accesses reaches ten times the cache size, every counter is halved, so frequencies reflect
+ * recent popularity rather than all-time popularity. Increments are lock-free.
+ */
+class FrequencySketch {
+
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+    private final AtomicLongArray table;
+    private final int tableMask;
+    private final int sampleSize;
+    private final AtomicInteger samples = new AtomicInteger();
+
+    /** Creates a sketch sized for a cache.
+     *
+     * @param maximumSize Maximum number of entries in the cache.
+     */
+    FrequencySketch(long maximumSize) {
+        int size = (int) Math.min(1 << 30, Math.max(16, Long.highestOneBit(Math.max(1, maximumSize - 1)) << 1));
+        this.table = new AtomicLongArray(size);
+        this.tableMask = size - 1;
+        this.sampleSize = (int) Math.min(Integer.MAX_VALUE / 2, Math.max(10, 10 * maximumSize));
+    }
+
+    /** Returns the estimated number of recent accesses to a key, from 0 to 15.
+     *
+     * @param hash Hash code of the key.
+     * @return The estimated frequency.
+     */
+    int frequency(int hash) {
+        int frequency = Integer.MAX_VALUE;
+        for (int depth = 0; depth < 4; depth++) {
+            int index = indexOf(hash, depth);
+            int shift = counterShift(hash, depth);
+            frequency = Math.min(frequency, (int) ((table.get(index) >>> shift) & 0xf));
+        }
+        return frequency;
+    }
+
+    /** Records an access to a key.
+     *
+     * @param hash Hash code of the key.
+     */
+    void increment(int hash) {
+        boolean added = false;
+        for (int depth = 0; depth < 4; depth++)
+            added |= incrementAt(indexOf(hash, depth), counterShift(hash, depth));
+        if (added && samples.incrementAndGet() >= sampleSize)
+            reset();
+    }
+
+    private boolean incrementAt(int index, int shift) {
+        long mask = 0xfL << shift;
+        while (true) {
+            long current = table.get(index);
+            if ((current & mask) == mask)
+                return false; // Saturated
+            if (table.compareAndSet(index, current, current + (1L << shift)))
+                return true;
+        }
+    }
+
+    /** Halves every counter. Increments racing with the reset may be lost, which only makes the estimate slightly
+     * lower, as it already is after any reset.
+     */
+    private void reset() {
+        if (samples.getAndSet(0) < sampleSize)
+            return; // Another thread is already resetting
+        for (int i = 0; i < table.length(); i++) {
+            long current;
+            do {
+                current = table.get(i);
+            } while (!table.compareAndSet(i, current, (current >>> 1) & RESET_MASK));
+        }
+    }
+
+    private int indexOf(int hash, int depth) {
+        long h = (hash + SEEDS[depth]) * SEEDS[depth];
+        h ^= h >>> 32;
+        return (int) h & tableMask;
+    }
+
+    private static int counterShift(int hash, int depth) {
+        // Each depth uses a different 4-bit counter of the selected long
+        return (((hash >>> (depth * 8)) & 3) + (depth << 2)) << 2;
+    }
+}
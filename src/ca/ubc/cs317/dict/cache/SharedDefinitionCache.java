@@ -0,0 +1,322 @@
+package ca.ubc.cs317.dict.cache;
+
+import ca.ubc.cs317.dict.model.Definition;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Definition cache kept in a memory-mapped file, so that every JVM on a host attaching to the same file shares the
+ * same entries: a lookup cached by one process is a hit for all the others, and cached bodies live outside the heap.
+ *
+ * The file holds an open-addressing hash table of 8-byte slots followed by an append-only data region. Writers
+ * claim an empty slot by compare-and-set, marking it as reserved, then take space in the data region by atomically
+ * bumping an allocation pointer, write their record there, and publish it in the slot. Space is only taken once the
+ * slot is won, so a writer losing a race never leaves unreachable space behind. Readers never lock: they skip reserved
+ * slots, and a published slot points to a complete record. Entries are never removed or replaced, so the cache suits
+ * read-mostly data such as definitions; once the table or the data region is full, further puts are refused. To start
+ * over, delete the file while no process is attached to it. Entries are keyed by server as well as by database and
+ * word, so processes talking to different DICT servers can share a file without answering each other's lookups.
+ *
+ * Layout (native byte order):
+ *   header:  int magic, int version, int slotCount, int unused, long dataCapacity, long allocated, long entries,
+ *            padding up to HEADER_SIZE
+ *   slots:   slotCount longs; 0 when empty, otherwise (16-bit hash tag &lt;&lt; 48) | (record offset + 1), with the offset
+ *            field set to RESERVED while the record is being written, or to ABANDONED if there was no room for it
+ *   data:    records of int keyLength, int valueLength, long keyHash, key bytes, value bytes, padded to 8 bytes
+ */
+public class SharedDefinitionCache implements Closeable {
+
+    private static final int MAGIC = 0x44534843; // "DSHC"
+    private static final int VERSION = 3;
+
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int SLOT_COUNT_OFFSET = 8;
+    private static final int DATA_CAPACITY_OFFSET = 16;
+    private static final int ALLOCATED_OFFSET = 24;
+    private static final int ENTRIES_OFFSET = 32;
+    private static final int HEADER_SIZE = 64;
+
+    // Geometry of files created by attach(file): room for 64K lookups and 128MiB of definitions
+    private static final int DEFAULT_SLOT_COUNT = 1 << 16;
+    private static final long DEFAULT_DATA_CAPACITY = 128L << 20;
+
+    private static final int RECORD_HEADER_SIZE = 16;
+    private static final long OFFSET_MASK = (1L << 48) - 1;
+    // Offset fields of slots without a record; records are at most 2GiB into the file, far below these values
+    private static final long RESERVED = OFFSET_MASK;
+    private static final long ABANDONED = OFFSET_MASK - 1;
+    // How long a writer waits for a reserved slot with its tag to be published before probing past it. Writing a
+    // record takes microseconds, but the writer holding the reservation may be descheduled meanwhile.
+    private static final long RESERVATION_WAIT_NANOS = 100_000_000;
+
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int slotCount;
+    private final long dataCapacity;
+    private final int dataStart;
+
+    private SharedDefinitionCache(FileChannel channel, MappedByteBuffer buffer) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.slotCount = (int) INT.getVolatile(buffer, SLOT_COUNT_OFFSET);
+        this.dataCapacity = (long) LONG.getVolatile(buffer, DATA_CAPACITY_OFFSET);
+        this.dataStart = HEADER_SIZE + slotCount * Long.BYTES;
+    }
+
+    /** Attaches to a shared cache file, creating it with a default geometry if it does not exist yet.
+     *
+     * @param file Path of the cache file, the same for every process sharing the cache.
+     * @return The attached cache.
+     * @throws IOException If the file can't be created or mapped, or is not a compatible cache file.
+     */
+    public static SharedDefinitionCache attach(Path file) throws IOException {
+        return attach(file, DEFAULT_SLOT_COUNT, DEFAULT_DATA_CAPACITY);
+    }
+
+    /** Attaches to a shared cache file, creating and initializing it if it does not exist yet. When the file already
+     * exists, its own geometry is used and the sizes given here are ignored.
+     *
+     * @param file         Path of the cache file, the same for every process sharing the cache.
+     * @param slotCount    Number of entries the table can hold; rounded up to a power of two.
+     * @param dataCapacity Size of the data region, in bytes.
+     * @return The attached cache.
+     * @throws IOException If the file can't be created or mapped, or is not a compatible cache file.
+     */
+    public static SharedDefinitionCache attach(Path file, int slotCount, long dataCapacity) throws IOException {
+        slotCount = Integer.highestOneBit(Math.max(2, slotCount - 1)) << 1;
+        if (HEADER_SIZE + (long) slotCount * Long.BYTES + dataCapacity > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("A shared cache file is limited to 2GiB");
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            // The file lock only serializes initialization; lookups and puts never take it
+            FileLock lock = channel.lock();
+            try {
+                if (channel.size() < HEADER_SIZE) {
+                    long size = HEADER_SIZE + (long) slotCount * Long.BYTES + dataCapacity;
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                    INT.set(buffer, VERSION_OFFSET, VERSION);
+                    INT.set(buffer, SLOT_COUNT_OFFSET, slotCount);
+                    LONG.set(buffer, DATA_CAPACITY_OFFSET, dataCapacity);
+                    LONG.set(buffer, ALLOCATED_OFFSET, 0L);
+                    LONG.set(buffer, ENTRIES_OFFSET, 0L);
+                    // The magic number is written last, marking the header as complete
+                    INT.setVolatile(buffer, MAGIC_OFFSET, MAGIC);
+                    return new SharedDefinitionCache(channel, buffer);
+                }
+
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+                if ((int) INT.getVolatile(buffer, MAGIC_OFFSET) != MAGIC
+                        || (int) INT.get(buffer, VERSION_OFFSET) != VERSION)
+                    throw new IOException("Not a compatible shared cache file: " + file);
+                return new SharedDefinitionCache(channel, buffer);
+            } finally {
+                lock.release();
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /** Retrieves the definitions cached for a lookup.
+     *
+     * @param server   Server the lookup was made to, as host:port.
+     * @param database Name of the database used in the lookup.
+     * @param word     The word looked up.
+     * @return The cached definitions, or null if the lookup is not cached.
+     */
+    public List<Definition> get(String server, String database, String word) {
+        byte[] key = key(server, database, word);
+        long hash = hash(key);
+        int mask = slotCount - 1;
+        for (int probe = 0, slot = (int) hash & mask; probe < slotCount; probe++, slot = (slot + 1) & mask) {
+            long entry = (long) LONG.getVolatile(buffer, slotOffset(slot));
+            if (entry == 0)
+                return null;
+            if (tag(entry) == tag(hash) && hasRecord(entry)) {
+                int record = recordOffset(entry);
+                if (keyMatches(record, key, hash))
+                    return DefinitionCodec.decode(word, readValue(record, key.length));
+            }
+        }
+        return null;
+    }
+
+    /** Caches the definitions of a lookup, unless the lookup is already cached or the cache is full.
+     *
+     * @param server      Server the lookup was made to, as host:port.
+     * @param database    Name of the database used in the lookup.
+     * @param word        The word looked up.
+     * @param definitions The definitions returned by the server.
+     * @return True if the definitions were added, false if the lookup was already cached or there is no room.
+     */
+    public boolean put(String server, String database, String word, Collection<Definition> definitions) {
+        byte[] key = key(server, database, word);
+        long hash = hash(key);
+        byte[] value = DefinitionCodec.encode(definitions);
+
+        int mask = slotCount - 1;
+        for (int probe = 0, slot = (int) hash & mask; probe < slotCount; probe++, slot = (slot + 1) & mask) {
+            int offset = slotOffset(slot);
+            long entry = (long) LONG.getVolatile(buffer, offset);
+            if (entry == 0) {
+                long reserved = (tag(hash) << 48) | RESERVED;
+                if (LONG.compareAndSet(buffer, offset, 0L, reserved)) {
+                    int record = allocate(RECORD_HEADER_SIZE + key.length + value.length);
+                    if (record < 0) {
+                        // The slot can't go back to empty, since later keys may already have probed past it
+                        LONG.setVolatile(buffer, offset, (tag(hash) << 48) | ABANDONED);
+                        return false;
+                    }
+                    writeRecord(record, key, hash, value);
+                    LONG.setVolatile(buffer, offset, (tag(hash) << 48) | (record - dataStart + 1L));
+                    LONG.getAndAdd(buffer, ENTRIES_OFFSET, 1L);
+                    return true;
+                }
+                // Another writer claimed this slot first; it may be storing the same key
+                entry = (long) LONG.getVolatile(buffer, offset);
+            }
+            if (tag(entry) != tag(hash))
+                continue;
+            if ((entry & OFFSET_MASK) == RESERVED)
+                entry = awaitPublished(offset);
+            if (hasRecord(entry) && keyMatches(recordOffset(entry), key, hash))
+                return false;
+        }
+        return false;
+    }
+
+    /** Waits briefly for a reserved slot to be published, so concurrent puts of the same key don't both store it. A
+     * writer that died while holding the reservation never publishes it, so the wait is bounded.
+     *
+     * @return The slot's entry, still reserved if the wait timed out.
+     */
+    private long awaitPublished(int offset) {
+        long deadline = System.nanoTime() + RESERVATION_WAIT_NANOS;
+        long entry = (long) LONG.getVolatile(buffer, offset);
+        while ((entry & OFFSET_MASK) == RESERVED && System.nanoTime() - deadline < 0) {
+            Thread.yield();
+            entry = (long) LONG.getVolatile(buffer, offset);
+        }
+        return entry;
+    }
+
+    /** Returns the number of lookups cached by all processes attached to the file.
+     *
+     * @return The number of cached lookups.
+     */
+    public long size() {
+        return (long) LONG.getVolatile(buffer, ENTRIES_OFFSET);
+    }
+
+    /** Returns the number of bytes of the data region used so far.
+     *
+     * @return The number of bytes allocated to records.
+     */
+    public long getAllocatedBytes() {
+        return Math.min((long) LONG.getVolatile(buffer, ALLOCATED_OFFSET), dataCapacity);
+    }
+
+    public long getDataCapacity() {
+        return dataCapacity;
+    }
+
+    /** Closes the file. The mapping itself is released when the cache is garbage collected, so the cache must not be
+     * used after this call.
+     *
+     * @throws IOException If the file can't be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private int allocate(int size) {
+        long aligned = (size + 7) & ~7L;
+        while (true) {
+            long allocated = (long) LONG.getVolatile(buffer, ALLOCATED_OFFSET);
+            if (allocated + aligned > dataCapacity)
+                return -1;
+            if (LONG.compareAndSet(buffer, ALLOCATED_OFFSET, allocated, allocated + aligned))
+                return (int) (dataStart + allocated);
+        }
+    }
+
+    private void writeRecord(int record, byte[] key, long hash, byte[] value) {
+        INT.set(buffer, record, key.length);
+        INT.set(buffer, record + 4, value.length);
+        LONG.set(buffer, record + 8, hash);
+        buffer.put(record + RECORD_HEADER_SIZE, key);
+        buffer.put(record + RECORD_HEADER_SIZE + key.length, value);
+        // The volatile write publishing the slot orders these writes before it
+    }
+
+    private boolean keyMatches(int record, byte[] key, long hash) {
+        if ((long) LONG.get(buffer, record + 8) != hash || (int) INT.get(buffer, record) != key.length)
+            return false;
+        for (int i = 0; i < key.length; i++)
+            if (buffer.get(record + RECORD_HEADER_SIZE + i) != key[i])
+                return false;
+        return true;
+    }
+
+    private byte[] readValue(int record, int keyLength) {
+        byte[] value = new byte[(int) INT.get(buffer, record + 4)];
+        buffer.get(record + RECORD_HEADER_SIZE + keyLength, value);
+        return value;
+    }
+
+    private int slotOffset(int slot) {
+        return HEADER_SIZE + slot * Long.BYTES;
+    }
+
+    /** Checks whether a non-empty slot points to a record, rather than being reserved or abandoned. */
+    private static boolean hasRecord(long entry) {
+        long offset = entry & OFFSET_MASK;
+        return offset != RESERVED && offset != ABANDONED;
+    }
+
+    private int recordOffset(long entry) {
+        return (int) (dataStart + (entry & OFFSET_MASK) - 1);
+    }
+
+    private static long tag(long hashOrEntry) {
+        return hashOrEntry >>> 48;
+    }
+
+    private static byte[] key(String server, String database, String word) {
+        return (server + '\0' + database + '\0' + word).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** 64-bit FNV-1a followed by a final mix. String.hashCode would also be stable across processes, but 32 bits
+     * leave too few for both the slot index and the tag.
+     */
+    private static long hash(byte[] key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
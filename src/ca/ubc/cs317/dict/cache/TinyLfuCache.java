@@ -0,0 +1,278 @@
+package ca.ubc.cs317.dict.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded concurrent cache with a W-TinyLFU eviction policy. New entries enter a small LRU window; when they leave
+ * the window they are only admitted into the main space if a frequency sketch estimates they are accessed more often
+ * than the entry they would evict. One-off lookups, such as batch jobs walking over rare words, therefore stay in the
+ * window and can't flush popular entries out of the cache.
+ *
+ * Reads are lock-free: entries live in a ConcurrentHashMap, and the bookkeeping that reorders the LRU lists is skipped
+ * when the list is busy, since losing an occasional reorder barely affects the hit ratio. Writes lock only one of
+ * several stripes, each managing the window and main space of the keys hashed to it.
+ */
+public class TinyLfuCache<K, V> {
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    /** An entry, linked into the LRU list of the segment it is in. */
+    private static final class Node<K, V> {
+        final K key;
+        final int hash;
+        volatile V value;
+        int segment;
+        Node<K, V> prev;
+        Node<K, V> next;
+
+        Node(K key, int hash, V value) {
+            this.key = key;
+            this.hash = hash;
+            this.value = value;
+        }
+    }
+
+    /** Circular doubly-linked LRU list; the head's next is the most recently used node. */
+    private static final class LruList<K, V> {
+        final Node<K, V> head = new Node<>(null, 0, null);
+        int size = 0;
+
+        LruList() {
+            head.prev = head;
+            head.next = head;
+        }
+
+        void addFirst(Node<K, V> node) {
+            node.next = head.next;
+            node.prev = head;
+            head.next.prev = node;
+            head.next = node;
+            size++;
+        }
+
+        void remove(Node<K, V> node) {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+            node.prev = null;
+            node.next = null;
+            size--;
+        }
+
+        Node<K, V> last() {
+            return head.prev == head ? null : head.prev;
+        }
+    }
+
+    /** The part of the cache managing the keys hashed to it. */
+    private static final class Stripe<K, V> {
+        final ReentrantLock lock = new ReentrantLock();
+        final LruList<K, V> window = new LruList<>();
+        final LruList<K, V> probation = new LruList<>();
+        final LruList<K, V> protectedList = new LruList<>();
+        final int windowCapacity;
+        final int mainCapacity;
+        final int protectedCapacity;
+
+        Stripe(int capacity) {
+            this.windowCapacity = Math.max(1, capacity / 100);
+            this.mainCapacity = Math.max(1, capacity - windowCapacity);
+            this.protectedCapacity = Math.max(1, mainCapacity * 4 / 5);
+        }
+
+        LruList<K, V> list(int segment) {
+            return segment == WINDOW ? window : segment == PROBATION ? probation : protectedList;
+        }
+    }
+
+    private final ConcurrentHashMap<K, Node<K, V>> data;
+    private final Stripe<K, V>[] stripes;
+    private final FrequencySketch sketch;
+    private final long maximumSize;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+
+    /** Creates an empty cache.
+     *
+     * @param maximumSize Maximum number of entries held by the cache.
+     */
+    public TinyLfuCache(long maximumSize) {
+        this(maximumSize, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1) << 1);
+    }
+
+    /** Creates an empty cache with an explicit number of stripes.
+     *
+     * @param maximumSize Maximum number of entries held by the cache.
+     * @param stripeCount Number of independently locked stripes; rounded up to a power of two, and reduced so every
+     *                    stripe holds at least 64 entries.
+     */
+    @SuppressWarnings("unchecked")
+    public TinyLfuCache(long maximumSize, int stripeCount) {
+        if (maximumSize <= 0)
+            throw new IllegalArgumentException("Maximum size must be positive");
+        int count = Integer.highestOneBit(Math.max(1, stripeCount - 1)) << 1;
+        while (count > 1 && maximumSize / count < 64)
+            count >>= 1;
+        this.maximumSize = maximumSize;
+        this.stripes = (Stripe<K, V>[]) new Stripe<?, ?>[count];
+        for (int i = 0; i < count; i++)
+            stripes[i] = new Stripe<>((int) Math.min(Integer.MAX_VALUE, (maximumSize + count - 1) / count));
+        this.data = new ConcurrentHashMap<>((int) Math.min(1 << 30, maximumSize));
+        this.sketch = new FrequencySketch(maximumSize);
+    }
+
+    /** Retrieves a cached value, recording the access.
+     *
+     * @param key The key to be looked up.
+     * @return The cached value, or null if the key is not cached.
+     */
+    public V get(K key) {
+        int hash = spread(key.hashCode());
+        sketch.increment(hash);
+        Node<K, V> node = data.get(key);
+        if (node == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+
+        Stripe<K, V> stripe = stripeFor(hash);
+        if (stripe.lock.tryLock()) {
+            try {
+                onAccess(stripe, node);
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        return node.value;
+    }
+
+    /** Adds or replaces a cached value. A new key may be evicted again right away if it is not used often enough to
+     * replace an entry of the main space.
+     *
+     * @param key   The key.
+     * @param value The value to be cached.
+     */
+    public void put(K key, V value) {
+        int hash = spread(key.hashCode());
+        Stripe<K, V> stripe = stripeFor(hash);
+        stripe.lock.lock();
+        try {
+            Node<K, V> existing = data.get(key);
+            if (existing != null) {
+                existing.value = value;
+                onAccess(stripe, existing);
+                return;
+            }
+
+            Node<K, V> node = new Node<>(key, hash, value);
+            node.segment = WINDOW;
+            stripe.window.addFirst(node);
+            data.put(key, node);
+            if (stripe.window.size > stripe.windowCapacity)
+                evictFromWindow(stripe);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /** Removes a cached value.
+     *
+     * @param key The key to be removed.
+     */
+    public void invalidate(K key) {
+        Stripe<K, V> stripe = stripeFor(spread(key.hashCode()));
+        stripe.lock.lock();
+        try {
+            Node<K, V> node = data.remove(key);
+            if (node != null)
+                stripe.list(node.segment).remove(node);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    public long size() {
+        return data.size();
+    }
+
+    public long getMaximumSize() {
+        return maximumSize;
+    }
+
+    /** Returns a snapshot of the cache statistics.
+     *
+     * @return Hit and admission statistics accumulated since the cache was created.
+     */
+    public CacheStats stats() {
+        return new CacheStats(hits.sum(), misses.sum(), admitted.sum(), rejected.sum(), evicted.sum());
+    }
+
+    /** Moves an accessed node to the front of its list, promoting it from probation to protected. Must be called with
+     * the stripe lock held.
+     */
+    private void onAccess(Stripe<K, V> stripe, Node<K, V> node) {
+        // The node may have been evicted between the map lookup and acquiring the lock
+        if (node.prev == null)
+            return;
+        LruList<K, V> list = stripe.list(node.segment);
+        list.remove(node);
+        if (node.segment == PROBATION) {
+            node.segment = PROTECTED;
+            stripe.protectedList.addFirst(node);
+            if (stripe.protectedList.size > stripe.protectedCapacity) {
+                // Demote the least recently used protected entry to make room
+                Node<K, V> demoted = stripe.protectedList.last();
+                stripe.protectedList.remove(demoted);
+                demoted.segment = PROBATION;
+                stripe.probation.addFirst(demoted);
+            }
+        } else
+            list.addFirst(node);
+    }
+
+    /** Moves the oldest window entry to the main space, if it is popular enough to take the place of the main space's
+     * eviction victim. Must be called with the stripe lock held.
+     */
+    private void evictFromWindow(Stripe<K, V> stripe) {
+        Node<K, V> candidate = stripe.window.last();
+        stripe.window.remove(candidate);
+
+        if (stripe.probation.size + stripe.protectedList.size < stripe.mainCapacity) {
+            candidate.segment = PROBATION;
+            stripe.probation.addFirst(candidate);
+            return;
+        }
+
+        Node<K, V> victim = stripe.probation.last();
+        if (victim == null)
+            victim = stripe.protectedList.last();
+        if (sketch.frequency(candidate.hash) > sketch.frequency(victim.hash)) {
+            stripe.list(victim.segment).remove(victim);
+            data.remove(victim.key, victim);
+            candidate.segment = PROBATION;
+            stripe.probation.addFirst(candidate);
+            admitted.increment();
+        } else {
+            data.remove(candidate.key, candidate);
+            rejected.increment();
+        }
+        evicted.increment();
+    }
+
+    private Stripe<K, V> stripeFor(int hash) {
+        return stripes[(hash >>> 16) & (stripes.length - 1)];
+    }
+
+    private static int spread(int hash) {
+        hash *= 0x9e3779b9;
+        return hash ^ (hash >>> 16);
+    }
+}
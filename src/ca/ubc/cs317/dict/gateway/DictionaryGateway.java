@@ -0,0 +1,499 @@
+package ca.ubc.cs317.dict.gateway;
+
+import ca.ubc.cs317.dict.cache.CacheStats;
+import ca.ubc.cs317.dict.cache.SharedDefinitionCache;
+import ca.ubc.cs317.dict.cache.TinyLfuCache;
+import ca.ubc.cs317.dict.model.Database;
+import ca.ubc.cs317.dict.model.Definition;
+import ca.ubc.cs317.dict.model.MatchingStrategy;
+import ca.ubc.cs317.dict.model.WordNormalizer;
+import ca.ubc.cs317.dict.net.DictConnectionException;
+import ca.ubc.cs317.dict.net.DictStringParser;
+import ca.ubc.cs317.dict.net.DictionaryConnectionPool;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32C;
+
+/**
+ * HTTP gateway exposing a DICT server as a JSON service, for clients that can't speak DICT themselves. Lookups are
+ * run over a shared pool of DICT connections, and responses are kept in a shared cache together with an ETag, so
+ * repeated lookups are answered without contacting the DICT server and conditional requests are answered with
+ * 304 Not Modified. Concurrent requests for a response that is not cached share a single lookup: the first one streams
+ * the response as it is serialized, and the others wait for it and are answered from the cache.
+ *
+ * Endpoints (all GET):
+ *   /define?word=w[&amp;db=*]                  definitions of a word
+ *   /match?word=w[&amp;strategy=prefix][&amp;db=*]  words matching a pattern
+ *   /databases                            databases available in the server
+ *   /strategies                           matching strategies supported by the server
+ *   /stats                                hit ratio and admission statistics of the response cache
+ *
+ * With --shared-cache, definitions are also looked up in a SharedDefinitionCache file before going to the DICT server,
+ * so gateways and other clients on the same host started with the same file warm each other's caches.
+ *
+ * Usage: java ca.ubc.cs317.dict.gateway.DictionaryGateway [--server host[:port]] [--port 8080] [--connections 8]
+ *        [--threads 64] [--cache-entries 10000] [--shared-cache path]
+ */
+public class DictionaryGateway {
+
+    private static final int DEFAULT_DICT_PORT = 2628;
+
+    private static final Logger logger = Logger.getLogger("ca.ubc.cs317.dict.gateway");
+
+    private static final Database ALL_DATABASES = new Database("*", "All databases");
+    private static final Database FIRST_MATCH = new Database("!", "Any database");
+
+    /** A serialized response body, kept with its ETag. */
+    private static class CachedResponse {
+        final byte[] body;
+        final String etag;
+
+        CachedResponse(byte[] body) {
+            this.body = body;
+            CRC32C crc = new CRC32C();
+            crc.update(body);
+            this.etag = "\"" + Long.toHexString(crc.getValue()) + "-" + Integer.toHexString(body.length) + "\"";
+        }
+    }
+
+    /** Produces the contents of a response, returning the writer of its JSON body. All lookups happen here, before
+     * anything is sent, so a failed lookup can still be answered with an error status.
+     */
+    private interface ResponseBody {
+        BodyWriter lookup() throws DictConnectionException;
+    }
+
+    /** Writes the JSON body of a response whose contents were already looked up. */
+    private interface BodyWriter {
+        void write(JsonWriter json) throws IOException;
+    }
+
+    /** Stream writing both to the client and to a buffer. Once the client fails, for instance because it went away,
+     * the rest of the body is still buffered, so the response can be cached for other requests.
+     */
+    private static class CopyingOutputStream extends OutputStream {
+        private final OutputStream client;
+        private final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        private IOException clientError = null;
+
+        CopyingOutputStream(OutputStream client) {
+            this.client = client;
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            copy.write(b, off, len);
+            if (client != null && clientError == null) {
+                try {
+                    client.write(b, off, len);
+                } catch (IOException e) {
+                    clientError = e;
+                }
+            }
+        }
+    }
+
+    private final DictionaryConnectionPool pool;
+    private final TinyLfuCache<String, CachedResponse> cache;
+    private final SharedDefinitionCache shared;
+    // Responses being produced by the request that missed the cache first
+    private final ConcurrentHashMap<String, CompletableFuture<CachedResponse>> inFlight = new ConcurrentHashMap<>();
+    // Databases listed by the server, fetched on first use and refreshed by /databases
+    private volatile Map<String, Database> databases = null;
+
+    public DictionaryGateway(DictionaryConnectionPool pool, int cacheEntries) {
+        this(pool, cacheEntries, null);
+    }
+
+    /** Creates a gateway whose definition lookups are also shared with other processes.
+     *
+     * @param pool         Pool of connections to the DICT server.
+     * @param cacheEntries Maximum number of responses kept in the response cache.
+     * @param shared       Definition cache shared with other processes, or null.
+     */
+    public DictionaryGateway(DictionaryConnectionPool pool, int cacheEntries, SharedDefinitionCache shared) {
+        this.pool = pool;
+        this.cache = new TinyLfuCache<>(cacheEntries);
+        this.shared = shared;
+    }
+
+    /** Starts serving requests.
+     *
+     * @param port     HTTP port to listen on.
+     * @param executor Executor running the request handlers; handlers block while waiting for the DICT server.
+     * @return The running server.
+     * @throws IOException If the port can't be bound.
+     */
+    public HttpServer start(int port, ExecutorService executor) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 1024);
+        server.createContext("/define", this::handleDefine);
+        server.createContext("/match", this::handleMatch);
+        server.createContext("/databases", exchange -> respond(exchange, "databases", () -> {
+            Map<String, Database> listed = pool.execute(connection -> connection.getDatabaseList());
+            databases = listed;
+            return json -> {
+                json.beginArray();
+                for (Database database : listed.values())
+                    json.beginObject().name("name").value(database.getName())
+                            .name("description").value(database.getDescription()).endObject();
+                json.endArray();
+            };
+        }));
+        server.createContext("/strategies", exchange -> respond(exchange, "strategies", () -> {
+            Collection<MatchingStrategy> strategies = pool.execute(connection -> connection.getStrategyList());
+            return json -> {
+                json.beginArray();
+                for (MatchingStrategy strategy : strategies)
+                    json.beginObject().name("name").value(strategy.getName())
+                            .name("description").value(strategy.getDescription()).endObject();
+                json.endArray();
+            };
+        }));
+        server.createContext("/stats", this::handleStats);
+        server.setExecutor(executor);
+        server.start();
+        return server;
+    }
+
+    private void handleDefine(HttpExchange exchange) throws IOException {
+        Map<String, String> query = parseQuery(exchange);
+        Database database = databaseParameter(exchange, query);
+        if (database == null)
+            return;
+        WordNormalizer normalizer = WordNormalizer.forDatabase(database);
+        String word = query.get("word") == null ? null : normalizer.toQuery(query.get("word"));
+        if (word == null || word.isEmpty()) {
+            sendError(exchange, 400, "Missing word parameter");
+            return;
+        }
+        if (!isValidRequest(exchange, word, database.getName()))
+            return;
+        // Equivalent spellings of the word share the response cached for whichever was requested first
+        String normalized = normalizer.normalize(word);
+        respond(exchange, "define\0" + database.getName() + "\0" + normalized, () -> {
+            Collection<Definition> definitions = lookupDefinitions(word, normalized, database);
+            return json -> {
+                json.beginArray();
+                for (Definition definition : definitions)
+                    json.beginObject().name("word").value(definition.getWord())
+                            .name("database").value(definition.getDatabaseName())
+                            .name("definition").value(definition.getDefinition()).endObject();
+                json.endArray();
+            };
+        });
+    }
+
+    private void handleMatch(HttpExchange exchange) throws IOException {
+        Map<String, String> query = parseQuery(exchange);
+        Database database = databaseParameter(exchange, query);
+        if (database == null)
+            return;
+        WordNormalizer normalizer = WordNormalizer.forDatabase(database);
+        String strategyName = query.getOrDefault("strategy", "prefix");
+        if (!DictStringParser.isAtom(strategyName)) {
+            sendError(exchange, 400, "Invalid strategy parameter");
+            return;
+        }
+        // Patterns of strategies such as re are case-sensitive, so only literal patterns are normalized
+        String word = query.get("word") == null ? null : normalizer.toPatternQuery(query.get("word"), strategyName);
+        if (word == null || word.isEmpty()) {
+            sendError(exchange, 400, "Missing word parameter");
+            return;
+        }
+        if (!isValidRequest(exchange, word, database.getName()))
+            return;
+        MatchingStrategy strategy = new MatchingStrategy(strategyName, strategyName);
+        String key = "match\0" + database.getName() + "\0" + strategyName + "\0"
+                + normalizer.normalizePattern(word, strategyName);
+        respond(exchange, key, () -> {
+            Collection<String> matches = pool.execute(connection -> connection.getMatchList(word, strategy, database));
+            return json -> {
+                json.beginArray();
+                for (String match : matches)
+                    json.value(match);
+                json.endArray();
+            };
+        });
+    }
+
+    /** Retrieves definitions from the shared cache, or from the DICT server, adding them to the shared cache. */
+    private Collection<Definition> lookupDefinitions(String word, String normalized, Database database)
+            throws DictConnectionException {
+        if (shared == null)
+            return pool.execute(connection -> connection.getDefinitions(word, database));
+        Collection<Definition> definitions = shared.get(pool.getServer(), database.getName(), normalized);
+        if (definitions == null) {
+            definitions = pool.execute(connection -> connection.getDefinitions(word, database));
+            shared.put(pool.getServer(), database.getName(), normalized, definitions);
+        }
+        return definitions;
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException {
+        CacheStats stats = cache.stats();
+        StringWriter text = new StringWriter();
+        new JsonWriter(text).beginObject()
+                .name("entries").value(cache.size())
+                .name("maximumEntries").value(cache.getMaximumSize())
+                .name("hits").value(stats.getHitCount())
+                .name("misses").value(stats.getMissCount())
+                .name("hitRatio").value(stats.getHitRatio())
+                .name("admitted").value(stats.getAdmittedCount())
+                .name("rejected").value(stats.getRejectedCount())
+                .name("evicted").value(stats.getEvictionCount())
+                .endObject();
+        byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-store");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /** Sends a response from the cache, or produces it and caches it if it is not there yet. Only one request at a
+     * time produces a given response; requests arriving meanwhile wait for it instead of repeating the lookup. The
+     * producing request streams the body to its client while it is serialized, without an ETag, since that is only
+     * known once the whole body was written. Responses are then served from the cache with their ETag.
+     */
+    private void respond(HttpExchange exchange, String cacheKey, ResponseBody producer) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("GET") && !exchange.getRequestMethod().equals("HEAD")) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                sendError(exchange, 405, "Method not allowed");
+                return;
+            }
+
+            CachedResponse response = cache.get(cacheKey);
+            if (response == null) {
+                CompletableFuture<CachedResponse> flight = new CompletableFuture<>();
+                CompletableFuture<CachedResponse> leader = inFlight.putIfAbsent(cacheKey, flight);
+                if (leader != null)
+                    response = await(leader);
+                else {
+                    try {
+                        response = produce(exchange, cacheKey, producer, flight);
+                    } catch (Throwable e) {
+                        flight.completeExceptionally(e);
+                        throw e;
+                    } finally {
+                        inFlight.remove(cacheKey, flight);
+                    }
+                    // The response was already streamed, unless it had to be buffered to honour the request
+                    if (exchange.getResponseCode() != -1)
+                        return;
+                }
+            }
+            sendCached(exchange, response);
+        } catch (DictConnectionException e) {
+            if (exchange.getResponseCode() == -1)
+                sendError(exchange, 502, e.getMessage() == null ? "DICT server error" : e.getMessage());
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Failed to answer " + exchange.getRequestURI(), e);
+            if (exchange.getResponseCode() == -1)
+                sendError(exchange, 500, "Internal error");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /** Looks up a response, adds it to the cache and completes the flight waited on by other requests. A plain GET
+     * is streamed to the client as it is serialized; HEAD and conditional requests are only answered once the response
+     * is cached, so it has an ETag.
+     *
+     * @return The cached response.
+     */
+    private CachedResponse produce(HttpExchange exchange, String cacheKey, ResponseBody producer,
+                                   CompletableFuture<CachedResponse> flight) throws IOException, DictConnectionException {
+        BodyWriter body = producer.lookup();
+        boolean stream = exchange.getRequestMethod().equals("GET")
+                && exchange.getRequestHeaders().getFirst("If-None-Match") == null;
+        OutputStream client = null;
+        if (stream) {
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(200, 0);
+            client = exchange.getResponseBody();
+        }
+
+        CopyingOutputStream out = new CopyingOutputStream(client);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+            body.write(new JsonWriter(writer));
+        }
+        CachedResponse response = new CachedResponse(out.copy.toByteArray());
+        cache.put(cacheKey, response);
+        // Other requests get the response even if this request's client went away while it was streamed
+        flight.complete(response);
+        if (out.clientError != null)
+            throw out.clientError;
+        return response;
+    }
+
+    /** Waits for a response being produced by another request.
+     *
+     * @return The response.
+     * @throws DictConnectionException If the other request failed to look up the response.
+     */
+    private static CachedResponse await(CompletableFuture<CachedResponse> flight) throws DictConnectionException {
+        try {
+            return flight.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof DictConnectionException)
+                throw (DictConnectionException) e.getCause();
+            throw new IllegalStateException("Response could not be produced", e.getCause());
+        }
+    }
+
+    private static void sendCached(HttpExchange exchange, CachedResponse response) throws IOException {
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("ETag", response.etag);
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        if (ifNoneMatch != null && (ifNoneMatch.equals("*") || Arrays.asList(ifNoneMatch.split("\\s*,\\s*"))
+                .contains(response.etag))) {
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+
+        headers.set("Content-Type", "application/json; charset=utf-8");
+        if (exchange.getRequestMethod().equals("HEAD")) {
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(200, response.body.length);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(response.body);
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        StringWriter text = new StringWriter();
+        new JsonWriter(text).beginObject().name("error").value(message).endObject();
+        byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /** Checks the parameters that are sent to the DICT server, answering 400 Bad Request if they are invalid. Words
+     * are sent quoted on a single command line, and pooled connections are shared by all requests, so a line break in
+     * a word would make every later reply on that connection answer the wrong request.
+     *
+     * @return True if the parameters can be sent, false if the error was already sent.
+     */
+    private static boolean isValidRequest(HttpExchange exchange, String word, String databaseName) throws IOException {
+        if (!DictStringParser.isQuotable(word) || word.indexOf('"') >= 0) {
+            sendError(exchange, 400, "Words can't contain quotes or control characters");
+            return false;
+        }
+        if (!DictStringParser.isAtom(databaseName)) {
+            sendError(exchange, 400, "Invalid db parameter");
+            return false;
+        }
+        return true;
+    }
+
+    /** Returns the database named by the db parameter, answering 400 Bad Request if the server doesn't list it. Only
+     * databases listed by the server are accepted, so arbitrary names are never added to the process-wide
+     * DatabaseCatalog; databases added to the server later are accepted once /databases is requested.
+     *
+     * @return The database, or null if the error was already sent.
+     */
+    private Database databaseParameter(HttpExchange exchange, Map<String, String> query) throws IOException {
+        String name = query.getOrDefault("db", ALL_DATABASES.getName());
+        if (name.equals(ALL_DATABASES.getName()))
+            return ALL_DATABASES;
+        if (name.equals(FIRST_MATCH.getName()))
+            return FIRST_MATCH;
+
+        Map<String, Database> listed = databases;
+        if (listed == null) {
+            try {
+                listed = pool.execute(connection -> connection.getDatabaseList());
+            } catch (DictConnectionException e) {
+                sendError(exchange, 502, e.getMessage() == null ? "DICT server error" : e.getMessage());
+                return null;
+            }
+            databases = listed;
+        }
+        Database database = listed.get(name);
+        if (database == null)
+            sendError(exchange, 400, "Unknown db parameter");
+        return database;
+    }
+
+    private static Map<String, String> parseQuery(HttpExchange exchange) {
+        Map<String, String> parameters = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null)
+            return parameters;
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals < 0)
+                continue;
+            parameters.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                    URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+        }
+        return parameters;
+    }
+
+    public static void main(String[] args) throws IOException {
+        String host = "dict.org";
+        int dictPort = DEFAULT_DICT_PORT;
+        int httpPort = 8080;
+        int connections = 8;
+        int threads = 64;
+        int cacheEntries = 10_000;
+        Path sharedCacheFile = null;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--server":
+                    if (value.contains(":")) {
+                        String[] serverData = value.split(":", 2);
+                        host = serverData[0];
+                        dictPort = Integer.parseInt(serverData[1]);
+                    } else
+                        host = value;
+                    break;
+                case "--port": httpPort = Integer.parseInt(value); break;
+                case "--connections": connections = Integer.parseInt(value); break;
+                case "--threads": threads = Integer.parseInt(value); break;
+                case "--cache-entries": cacheEntries = Integer.parseInt(value); break;
+                case "--shared-cache": sharedCacheFile = Path.of(value); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        DictionaryConnectionPool pool = new DictionaryConnectionPool(host, dictPort, connections);
+        SharedDefinitionCache shared = sharedCacheFile == null ? null : SharedDefinitionCache.attach(sharedCacheFile);
+        DictionaryGateway gateway = new DictionaryGateway(pool, cacheEntries, shared);
+        // Cache hits never block, so only misses wait on the pool; the thread count bounds those waiting at once
+        HttpServer server = gateway.start(httpPort, Executors.newFixedThreadPool(threads));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop(1);
+            pool.close();
+        }));
+        System.out.println("Serving " + host + ":" + dictPort + " on http://localhost:" + httpPort + "/");
+    }
+}
@@ -0,0 +1,133 @@
+package ca.ubc.cs317.dict.gateway;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Minimal streaming JSON writer. Values are written to the underlying Writer as they are produced, without building
+ * an intermediate document, and commas between values are inserted automatically.
+ */
+public class JsonWriter {
+
+    private final Writer out;
+    // Whether the next value in the current object or array is the first one, indexed by nesting depth
+    private boolean[] first = new boolean[8];
+    private int depth = 0;
+    private boolean afterName = false;
+
+    public JsonWriter(Writer out) {
+        this.out = out;
+        first[0] = true;
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        beforeValue();
+        out.write('{');
+        push();
+        return this;
+    }
+
+    public JsonWriter endObject() throws IOException {
+        depth--;
+        out.write('}');
+        return this;
+    }
+
+    public JsonWriter beginArray() throws IOException {
+        beforeValue();
+        out.write('[');
+        push();
+        return this;
+    }
+
+    public JsonWriter endArray() throws IOException {
+        depth--;
+        out.write(']');
+        return this;
+    }
+
+    /** Writes the name of the next member of the current object.
+     *
+     * @param name Name of the member.
+     * @return This writer.
+     * @throws IOException If the underlying writer fails.
+     */
+    public JsonWriter name(String name) throws IOException {
+        beforeValue();
+        writeString(name);
+        out.write(':');
+        afterName = true;
+        return this;
+    }
+
+    public JsonWriter value(String value) throws IOException {
+        beforeValue();
+        if (value == null)
+            out.write("null");
+        else
+            writeString(value);
+        return this;
+    }
+
+    public JsonWriter value(long value) throws IOException {
+        beforeValue();
+        out.write(Long.toString(value));
+        return this;
+    }
+
+    public JsonWriter value(double value) throws IOException {
+        beforeValue();
+        // JSON has no representation for NaN or infinities
+        out.write(Double.isFinite(value) ? Double.toString(value) : "null");
+        return this;
+    }
+
+    private void push() {
+        depth++;
+        if (depth == first.length) {
+            boolean[] deeper = new boolean[first.length * 2];
+            System.arraycopy(first, 0, deeper, 0, first.length);
+            first = deeper;
+        }
+        first[depth] = true;
+    }
+
+    private void beforeValue() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (!first[depth])
+            out.write(',');
+        first[depth] = false;
+    }
+
+    private void writeString(String value) throws IOException {
+        out.write('"');
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            String escape;
+            if (c == '"')
+                escape = "\\\"";
+            else if (c == '\\')
+                escape = "\\\\";
+            else if (c == '\n')
+                escape = "\\n";
+            else if (c == '\r')
+                escape = "\\r";
+            else if (c == '\t')
+                escape = "\\t";
+            else if (c < 0x20)
+                escape = String.format("\\u%04x", (int) c);
+            else
+                continue;
+            // Runs of characters that need no escaping are written in one call
+            out.write(value, start, i - start);
+            out.write(escape);
+            start = i + 1;
+        }
+        out.write(value, start, value.length() - start);
+        out.write('"');
+    }
+}
@@ -0,0 +1,230 @@
+package ca.ubc.cs317.dict.mirror;
+
+import ca.ubc.cs317.dict.cache.DefinitionCodec;
+import ca.ubc.cs317.dict.model.Definition;
+import ca.ubc.cs317.dict.model.WordNormalizer;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Read-only access to a database mirrored by MirrorBuilder. A mirror consists of two files: a sorted index of
+ * headwords ("name.idx"), loaded in memory, and the definitions of each headword ("name.dat"), read from disk on
+ * demand. Lookups use a binary search over the index and never touch the network. Instances are thread-safe.
+ *
+ * Besides the exact headwords, the mirror keeps the headwords normalized with the database's WordNormalizer, sorted
+ * separately, so a lookup that differs from a headword only in case, surrounding whitespace or Unicode composition
+ * still finds it.
+ */
+public class LocalMirror implements Closeable {
+
+    private static final int INDEX_MAGIC = 0x44494458; // "DIDX"
+
+    private final String databaseName;
+    private final String[] words;
+    private final long[] offsets;
+    private final int[] lengths;
+    private final FileChannel bodies;
+
+    private final WordNormalizer normalizer;
+    // Normalized headwords in sorted order, and the index of the headword each one was derived from; keyOrder is null
+    // if every headword is already normalized, in which case keys is the same array as words
+    private final String[] keys;
+    private final int[] keyOrder;
+
+    private LocalMirror(String databaseName, String[] words, long[] offsets, int[] lengths, FileChannel bodies) {
+        this.databaseName = databaseName;
+        this.words = words;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.bodies = bodies;
+        this.normalizer = WordNormalizer.forDatabase(databaseName);
+
+        String[] normalized = new String[words.length];
+        boolean changed = false;
+        for (int i = 0; i < words.length; i++) {
+            normalized[i] = normalizer.normalize(words[i]);
+            // Headwords that are already normalized come back as the same instance
+            changed |= normalized[i] != words[i];
+        }
+        if (!changed) {
+            this.keys = words;
+            this.keyOrder = null;
+        } else {
+            Integer[] order = new Integer[words.length];
+            for (int i = 0; i < order.length; i++)
+                order[i] = i;
+            // The sort is stable, so headwords with the same key stay in index order
+            Arrays.sort(order, Comparator.comparing(i -> normalized[i]));
+            this.keys = new String[words.length];
+            this.keyOrder = new int[words.length];
+            for (int i = 0; i < order.length; i++) {
+                keys[i] = normalized[order[i]];
+                keyOrder[i] = order[i];
+            }
+        }
+    }
+
+    /** Opens a mirror.
+     *
+     * @param base Path of the mirror files, without extension.
+     * @return The opened mirror.
+     * @throws IOException If the files can't be read or are not a mirror.
+     */
+    public static LocalMirror open(Path base) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(indexFile(base))))) {
+            if (in.readInt() != INDEX_MAGIC)
+                throw new IOException("Not a mirror index: " + indexFile(base));
+            String databaseName = in.readUTF();
+            int count = in.readInt();
+            String[] words = new String[count];
+            long[] offsets = new long[count];
+            int[] lengths = new int[count];
+            for (int i = 0; i < count; i++) {
+                words[i] = in.readUTF();
+                offsets[i] = in.readLong();
+                lengths[i] = in.readInt();
+            }
+            return new LocalMirror(databaseName, words, offsets, lengths,
+                    FileChannel.open(bodyFile(base), StandardOpenOption.READ));
+        }
+    }
+
+    public String getDatabaseName() {
+        return databaseName;
+    }
+
+    public int size() {
+        return words.length;
+    }
+
+    /** Returns all headwords in the mirror, in index order.
+     *
+     * @return An unmodifiable list of headwords.
+     */
+    public List<String> getHeadwords() {
+        return Collections.unmodifiableList(Arrays.asList(words));
+    }
+
+    /** Retrieves the definitions of a headword. If the word is not a headword as stored in the index, the first
+     * headword equal to it once normalized is used instead.
+     *
+     * @param word The headword.
+     * @return The definitions of the word, or an empty collection if the word is not in the mirror.
+     * @throws IOException If the body file can't be read.
+     */
+    public Collection<Definition> getDefinitions(String word) throws IOException {
+        int index = Arrays.binarySearch(words, word);
+        if (index < 0) {
+            String key = normalizer.normalize(word);
+            int position = firstKeyIndex(key);
+            if (position >= keys.length || !keys[position].equals(key))
+                return Collections.emptyList();
+            index = keyOrder == null ? position : keyOrder[position];
+        }
+        return DefinitionCodec.decode(words[index], readEntry(index));
+    }
+
+    /** Retrieves all headwords starting with a prefix, like a MATCH with the "prefix" strategy. Headwords and prefix
+     * are compared once normalized.
+     *
+     * @param prefix The prefix to be matched.
+     * @return The matching headwords, sorted by their normalized form.
+     */
+    public List<String> getPrefixMatches(String prefix) {
+        String key = normalizer.normalize(prefix);
+        int from = firstKeyIndex(key);
+        int to = from;
+        while (to < keys.length && keys[to].startsWith(key))
+            to++;
+        if (keyOrder == null)
+            return Collections.unmodifiableList(Arrays.asList(words).subList(from, to));
+        List<String> matches = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++)
+            matches.add(words[keyOrder[i]]);
+        return Collections.unmodifiableList(matches);
+    }
+
+    /** Returns the position of the first normalized headword not less than a key. */
+    private int firstKeyIndex(String key) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keys[middle].compareTo(key) < 0)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    /** Returns the encoded entry of a headword, as written in the body file. Used to carry unchanged entries over to a
+     * refreshed mirror without decoding them.
+     */
+    byte[] readEntry(int index) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(lengths[index]);
+        long position = offsets[index];
+        while (buffer.hasRemaining()) {
+            int n = bodies.read(buffer, position);
+            if (n < 0)
+                throw new EOFException("Mirror body file is truncated");
+            position += n;
+        }
+        return buffer.array();
+    }
+
+    int indexOf(String word) {
+        return Arrays.binarySearch(words, word);
+    }
+
+    @Override
+    public void close() throws IOException {
+        bodies.close();
+    }
+
+    /** Writes a mirror, replacing any existing mirror with the same base path. The files are written under temporary
+     * names and moved in place at the end, so an interrupted write never leaves a truncated file behind. Mirrors that
+     * are open while they are replaced keep reading the previous files.
+     *
+     * @param base         Path of the mirror files, without extension.
+     * @param databaseName Name of the mirrored database.
+     * @param entries      Encoded entries of every headword, sorted by headword.
+     * @throws IOException If the files can't be written.
+     */
+    static void write(Path base, String databaseName, SortedMap<String, byte[]> entries) throws IOException {
+        Path indexTemp = Path.of(indexFile(base) + ".tmp");
+        Path bodyTemp = Path.of(bodyFile(base) + ".tmp");
+        try (DataOutputStream index = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexTemp)));
+             OutputStream body = new BufferedOutputStream(Files.newOutputStream(bodyTemp))) {
+            index.writeInt(INDEX_MAGIC);
+            index.writeUTF(databaseName);
+            index.writeInt(entries.size());
+            long offset = 0;
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                index.writeUTF(entry.getKey());
+                index.writeLong(offset);
+                index.writeInt(entry.getValue().length);
+                body.write(entry.getValue());
+                offset += entry.getValue().length;
+            }
+        }
+        Files.move(bodyTemp, bodyFile(base), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(indexTemp, indexFile(base), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static Path indexFile(Path base) {
+        return Path.of(base + ".idx");
+    }
+
+    static Path bodyFile(Path base) {
+        return Path.of(base + ".dat");
+    }
+}
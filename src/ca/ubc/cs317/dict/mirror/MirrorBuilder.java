@@ -0,0 +1,307 @@
+package ca.ubc.cs317.dict.mirror;
+
+import ca.ubc.cs317.dict.cache.DefinitionCodec;
+import ca.ubc.cs317.dict.model.Database;
+import ca.ubc.cs317.dict.model.Definition;
+import ca.ubc.cs317.dict.model.MatchingStrategy;
+import ca.ubc.cs317.dict.net.DictConnectionException;
+import ca.ubc.cs317.dict.net.DictionaryConnectionPool;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds a LocalMirror of one database of a DICT server. Headwords are enumerated with prefix MATCH sweeps, and their
+ * definitions are retrieved with pipelined DEFINE commands over several connections.
+ *
+ * Progress is checkpointed next to the output: the enumerated headwords are saved to "name.words", and every
+ * retrieved entry is appended to "name.journal". An interrupted run resumes from these files instead of starting over,
+ * and they are removed once the mirror is written.
+ *
+ * A headword the server refuses with a permanent negative reply (5xx), for instance because it can't be quoted the
+ * way the server expects, is journaled as failed and left out of the mirror, instead of failing its whole batch on
+ * every run. Failed headwords are listed in "name.failed" once the mirror is written, and retried by the next refresh.
+ * Transient failures (4xx replies and connection errors) leave the headwords missing, to be retrieved by the next run.
+ *
+ * If a mirror already exists at the output, the run is an incremental refresh: headwords no longer in the server are
+ * dropped, new headwords are retrieved, and the entries of the remaining headwords are carried over without contacting
+ * the server again. DICT has no way of telling which definitions changed, so use --full to retrieve every entry again.
+ *
+ * Usage: java ca.ubc.cs317.dict.mirror.MirrorBuilder --database name --output path [--server host[:port]]
+ *        [--connections 4] [--batch 32] [--prefixes abcdefghijklmnopqrstuvwxyz0123456789] [--full]
+ */
+public class MirrorBuilder {
+
+    private static final int DEFAULT_DICT_PORT = 2628;
+
+    // Entry length journaled for a headword the server refused
+    private static final int FAILED = -1;
+
+    private final DictionaryConnectionPool pool;
+    private final Database database;
+    private final Path base;
+    private final int connections;
+    private final int batchSize;
+    private final String prefixes;
+    private final boolean full;
+
+    private DataOutputStream journal;
+
+    public MirrorBuilder(DictionaryConnectionPool pool, Database database, Path base, int batchSize, String prefixes,
+                         boolean full) {
+        this.pool = pool;
+        this.database = database;
+        this.base = base;
+        this.connections = pool.getMaxConnections();
+        this.batchSize = batchSize;
+        this.prefixes = prefixes;
+        this.full = full;
+    }
+
+    /** Builds or refreshes the mirror.
+     *
+     * @return True if the mirror was written, false if some entries could not be retrieved; running again retrieves
+     * only the missing entries.
+     * @throws IOException If the mirror or checkpoint files can't be read or written.
+     * @throws DictConnectionException If the headwords can't be enumerated.
+     * @throws InterruptedException If the thread is interrupted while waiting for the retrieval to finish.
+     */
+    public boolean build() throws IOException, DictConnectionException, InterruptedException {
+        List<String> headwords = loadOrEnumerateHeadwords();
+        SortedMap<String, byte[]> entries = new TreeMap<>();
+        SortedSet<String> failed = new TreeSet<>();
+        readJournal(entries, failed);
+        System.out.printf("%d headwords, %d already retrieved, %d failed%n", headwords.size(), entries.size(),
+                failed.size());
+
+        // Carry over entries from the previous mirror for headwords that are still in the server
+        LocalMirror previous = null;
+        if (!full && Files.exists(LocalMirror.indexFile(base)))
+            previous = LocalMirror.open(base);
+        List<String> missing = new ArrayList<>();
+        int carried = 0;
+        for (String word : headwords) {
+            if (entries.containsKey(word) || failed.contains(word))
+                continue;
+            int index = previous == null ? -1 : previous.indexOf(word);
+            if (index >= 0) {
+                entries.put(word, previous.readEntry(index));
+                carried++;
+            } else
+                missing.add(word);
+        }
+        if (previous != null) {
+            System.out.printf("refresh: %d entries unchanged, %d dropped, %d new%n", carried,
+                    previous.size() - carried, missing.size());
+            previous.close();
+        }
+
+        boolean complete = retrieve(missing, entries, failed);
+        if (!complete) {
+            System.out.println("Some entries could not be retrieved; run again to resume");
+            return false;
+        }
+
+        LocalMirror.write(base, database.getName(), entries);
+        if (failed.isEmpty())
+            Files.deleteIfExists(failedFile());
+        else {
+            Files.write(failedFile(), failed, StandardCharsets.UTF_8);
+            System.out.printf("%d headwords refused by the server were left out, see %s%n", failed.size(),
+                    failedFile());
+        }
+        Files.deleteIfExists(journalFile());
+        Files.deleteIfExists(headwordsFile());
+        System.out.printf("Wrote %d entries to %s%n", entries.size(), LocalMirror.indexFile(base));
+        return true;
+    }
+
+    private List<String> loadOrEnumerateHeadwords() throws IOException, DictConnectionException {
+        if (Files.exists(headwordsFile()))
+            return Files.readAllLines(headwordsFile(), StandardCharsets.UTF_8);
+
+        MatchingStrategy prefix = new MatchingStrategy("prefix", "Match prefixes");
+        SortedSet<String> headwords = new TreeSet<>();
+        for (char c : prefixes.toCharArray()) {
+            String letter = String.valueOf(c);
+            headwords.addAll(pool.execute(connection -> connection.getMatchList(letter, prefix, database)));
+            System.out.printf("prefix %s: %d headwords so far%n", letter, headwords.size());
+        }
+
+        Path temp = Path.of(headwordsFile() + ".tmp");
+        Files.write(temp, headwords, StandardCharsets.UTF_8);
+        Files.move(temp, headwordsFile(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return new ArrayList<>(headwords);
+    }
+
+    private boolean retrieve(List<String> words, SortedMap<String, byte[]> entries, SortedSet<String> failed)
+            throws IOException, InterruptedException {
+        if (words.isEmpty())
+            return true;
+
+        journal = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(journalFile(),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+        ExecutorService workers = Executors.newFixedThreadPool(connections);
+        AtomicInteger done = new AtomicInteger();
+        List<Future<Boolean>> batches = new ArrayList<>();
+        for (int start = 0; start < words.size(); start += batchSize) {
+            List<String> batch = words.subList(start, Math.min(start + batchSize, words.size()));
+            batches.add(workers.submit(() -> {
+                try {
+                    Map<String, DictConnectionException> failures = new LinkedHashMap<>();
+                    Map<String, Collection<Definition>> definitions =
+                            pool.execute(connection -> connection.getDefinitions(batch, database, failures));
+                    for (Map.Entry<String, Collection<Definition>> entry : definitions.entrySet())
+                        record(entry.getKey(), DefinitionCodec.encode(entry.getValue()), entries);
+
+                    boolean transientFailure = false;
+                    for (Map.Entry<String, DictConnectionException> failure : failures.entrySet()) {
+                        System.err.println("Headword " + failure.getKey() + " failed: " + failure.getValue().getMessage());
+                        // Retrying a 4xx reply may succeed; anything else would fail the same way on every run
+                        if (failure.getValue().getStatusCode() / 100 == 4)
+                            transientFailure = true;
+                        else
+                            recordFailure(failure.getKey(), failed);
+                    }
+                    int total = done.addAndGet(batch.size());
+                    if (total / 1000 != (total - batch.size()) / 1000)
+                        System.out.printf("%d/%d retrieved%n", total, words.size());
+                    return !transientFailure;
+                } catch (DictConnectionException e) {
+                    System.err.println("Batch starting at " + batch.get(0) + " failed: " + e.getMessage());
+                    return false;
+                }
+            }));
+        }
+
+        boolean complete = true;
+        try {
+            for (Future<Boolean> batch : batches)
+                complete &= batch.get();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            workers.shutdown();
+            journal.close();
+        }
+        return complete;
+    }
+
+    /** Adds a retrieved entry to the result and checkpoints it in the journal. */
+    private synchronized void record(String word, byte[] entry, SortedMap<String, byte[]> entries) throws IOException {
+        journal.writeUTF(word);
+        journal.writeInt(entry.length);
+        journal.write(entry);
+        journal.flush();
+        entries.put(word, entry);
+    }
+
+    /** Checkpoints a headword the server refused, so later runs don't ask for it again. */
+    private synchronized void recordFailure(String word, SortedSet<String> failed) throws IOException {
+        journal.writeUTF(word);
+        journal.writeInt(FAILED);
+        journal.flush();
+        failed.add(word);
+    }
+
+    /** Reads the entries and failed headwords checkpointed by a previous, interrupted run. A record cut short by the
+     * interruption is discarded, and the journal is truncated so new records are appended after the last complete one.
+     */
+    private void readJournal(SortedMap<String, byte[]> entries, SortedSet<String> failed) throws IOException {
+        if (!Files.exists(journalFile()))
+            return;
+
+        byte[] contents = Files.readAllBytes(journalFile());
+        ByteArrayInputStream bytes = new ByteArrayInputStream(contents);
+        DataInputStream in = new DataInputStream(bytes);
+        long valid = 0;
+        try {
+            while (true) {
+                String word = in.readUTF();
+                int length = in.readInt();
+                if (length == FAILED)
+                    failed.add(word);
+                else {
+                    byte[] entry = new byte[length];
+                    in.readFully(entry);
+                    entries.put(word, entry);
+                }
+                valid = contents.length - bytes.available();
+            }
+        } catch (EOFException e) {
+            // End of the journal, possibly in the middle of an incomplete record
+        }
+        try (FileChannel channel = FileChannel.open(journalFile(), StandardOpenOption.WRITE)) {
+            channel.truncate(valid);
+        }
+    }
+
+    private Path headwordsFile() {
+        return Path.of(base + ".words");
+    }
+
+    private Path journalFile() {
+        return Path.of(base + ".journal");
+    }
+
+    private Path failedFile() {
+        return Path.of(base + ".failed");
+    }
+
+    public static void main(String[] args) throws Exception {
+        String host = "dict.org";
+        int port = DEFAULT_DICT_PORT;
+        String databaseName = null;
+        String output = null;
+        int connections = 4;
+        int batchSize = 32;
+        String prefixes = "abcdefghijklmnopqrstuvwxyz0123456789";
+        boolean full = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--server":
+                    String value = args[++i];
+                    if (value.contains(":")) {
+                        String[] serverData = value.split(":", 2);
+                        host = serverData[0];
+                        port = Integer.parseInt(serverData[1]);
+                    } else
+                        host = value;
+                    break;
+                case "--database": databaseName = args[++i]; break;
+                case "--output": output = args[++i]; break;
+                case "--connections": connections = Integer.parseInt(args[++i]); break;
+                case "--batch": batchSize = Integer.parseInt(args[++i]); break;
+                case "--prefixes": prefixes = args[++i]; break;
+                case "--full": full = true; break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        if (databaseName == null || output == null) {
+            System.err.println("Usage: MirrorBuilder --database name --output path [--server host[:port]] "
+                    + "[--connections 4] [--batch 32] [--prefixes chars] [--full]");
+            System.exit(1);
+        }
+
+        DictionaryConnectionPool pool = new DictionaryConnectionPool(host, port, connections);
+        try {
+            MirrorBuilder builder = new MirrorBuilder(pool, new Database(databaseName, databaseName), Path.of(output),
+                    batchSize, prefixes, full);
+            if (!builder.build())
+                System.exit(2);
+        } finally {
+            pool.close();
+        }
+    }
+}
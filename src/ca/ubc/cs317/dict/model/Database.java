@@ -8,7 +8,7 @@ public class Database {
     private String description;
 
     public Database(String name, String description) {
-        this.name = name;
+        this.name = DatabaseCatalog.canonicalName(name);
         this.description = description;
     }
 
@@ -0,0 +1,54 @@
+package ca.ubc.cs317.dict.model;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Process-wide catalog assigning a small integer id to every database name seen, so that definitions can refer to
+ * their database by id instead of each holding its own copy of the name.
+ */
+public final class DatabaseCatalog {
+
+    private static final Map<String, Integer> ids = new HashMap<>();
+    private static volatile String[] names = new String[16];
+    private static int size = 0;
+
+    private DatabaseCatalog() {
+    }
+
+    /** Returns the id of a database name, registering the name if it was not seen before.
+     *
+     * @param name Name of the database (e.g., "wn", or the special names "*" and "!").
+     * @return The id of the database name.
+     */
+    public static synchronized int idOf(String name) {
+        Integer id = ids.get(name);
+        if (id != null)
+            return id;
+
+        if (size == names.length)
+            names = Arrays.copyOf(names, size * 2);
+        names[size] = name;
+        ids.put(name, size);
+        return size++;
+    }
+
+    /** Returns the canonical instance of the database name registered with an id.
+     *
+     * @param id Id previously returned by {@link #idOf(String)}.
+     * @return The database name.
+     */
+    public static String nameOf(int id) {
+        return names[id];
+    }
+
+    /** Returns the canonical instance of a database name, registering it if needed.
+     *
+     * @param name Name of the database.
+     * @return An equal String that is shared by every user of the catalog.
+     */
+    public static String canonicalName(String name) {
+        return name == null ? null : nameOf(idOf(name));
+    }
+}
@@ -1,6 +1,7 @@
 package ca.ubc.cs317.dict.model;
 
-import java.util.Objects;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 /**
  * Created by Jonatan on 2017-09-09.
@@ -8,12 +9,26 @@ import java.util.Objects;
 public class Definition {
 
     private String word;
-    private String databaseName;
-    private String definition;
+    // Id of the database name in the DatabaseCatalog, shared by all definitions from the same database
+    private int databaseId;
+    // Definition body encoded in UTF-8, only decoded when requested
+    private byte[] definition;
 
     public Definition(String word, String database) {
         this.word = word;
-        this.databaseName = database;
+        this.databaseId = DatabaseCatalog.idOf(database);
+    }
+
+    /** Creates a definition with its complete body. This is preferred over repeated calls to appendDefinition when
+     * the body is built from several lines, since the body is only encoded once.
+     *
+     * @param word       The word being defined.
+     * @param database   Name of the database the definition was retrieved from.
+     * @param definition The definition body, or null if there is none.
+     */
+    public Definition(String word, String database, String definition) {
+        this(word, database);
+        this.definition = encode(definition);
     }
 
     public String getWord() {
@@ -21,29 +36,33 @@ public class Definition {
     }
 
     public String getDatabaseName() {
-        return databaseName;
+        return DatabaseCatalog.nameOf(databaseId);
     }
 
     public String getDefinition() {
-        return definition;
+        return definition == null ? null : new String(definition, StandardCharsets.UTF_8);
     }
 
     public void setDefinition(String definition) {
-        this.definition = definition.trim();
+        this.definition = encode(definition.trim());
     }
 
     public void appendDefinition(String definition) {
         if (this.definition == null)
-            this.definition = definition;
+            this.definition = encode(definition);
         else if (definition != null)
-            this.definition += System.lineSeparator() + definition;
+            this.definition = encode(getDefinition() + System.lineSeparator() + definition);
+    }
+
+    private static byte[] encode(String definition) {
+        return definition == null ? null : definition.getBytes(StandardCharsets.UTF_8);
     }
 
     @Override
     public String toString() {
         return "('" + word + '\'' +
-                "@'" + databaseName + '\'' +
-                ": '" + definition + '\'';
+                "@'" + getDatabaseName() + '\'' +
+                ": '" + getDefinition() + '\'';
     }
 
     @Override
@@ -51,11 +70,11 @@ public class Definition {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Definition that = (Definition) o;
-        return word.equals(that.word) && databaseName.equals(that.databaseName) && Objects.equals(definition, that.definition);
+        return word.equals(that.word) && databaseId == that.databaseId && Arrays.equals(definition, that.definition);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(word, databaseName, definition);
+        return 31 * (31 * word.hashCode() + databaseId) + Arrays.hashCode(definition);
     }
 }
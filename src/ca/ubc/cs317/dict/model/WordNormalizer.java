@@ -0,0 +1,208 @@
+package ca.ubc.cs317.dict.model;
+
+import java.text.Normalizer;
+import java.util.BitSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Normalizes words so that equivalent inputs, such as "Caf\u00e9", "caf\u00e9" and "cafe\u0301", become the same
+ * cache or index key. A word is trimmed, case-folded independently of the default locale, and converted to Unicode
+ * normalization form C (NFC); each step can be disabled, and a different normalizer can be registered for databases
+ * whose headwords are case-sensitive.
+ *
+ * Words that are already normalized, which is the common case for words typed in lower case, are returned as the same
+ * String instance, so normalizing them does not allocate.
+ */
+public final class WordNormalizer {
+
+    /** Trims, case-folds and converts to NFC. Used for every database without a registered normalizer. */
+    public static final WordNormalizer FOLDING = new WordNormalizer(true, true, true);
+
+    /** Trims and converts to NFC, but keeps the case, for databases where case distinguishes headwords. */
+    public static final WordNormalizer CASE_SENSITIVE = new WordNormalizer(true, false, true);
+
+    // MATCH strategies whose pattern is a word, so equivalent spellings of the pattern find the same matches. Other
+    // strategies, such as re and regexp, give meaning to case and whitespace, and their patterns are kept as is.
+    private static final Set<String> LITERAL_STRATEGIES = Set.of("exact", "prefix", "suffix", "substring", "lev",
+            "soundex");
+
+    private static final Map<String, WordNormalizer> byDatabase = new ConcurrentHashMap<>();
+
+    /** Characters that case folding leaves unchanged wherever they appear in a word, computed on first use. Sigma is
+     * left out, since its lower case form depends on whether it ends a word, and so are surrogates, which only fold as
+     * pairs.
+     */
+    private static final class FoldStable {
+        static final BitSet CHARS = new BitSet(Character.MAX_VALUE + 1);
+
+        static {
+            for (int c = Character.MIN_VALUE; c <= Character.MAX_VALUE; c++) {
+                if (Character.isSurrogate((char) c) || c == '\u03a3' || c == '\u03c2' || c == '\u03c3')
+                    continue;
+                String s = String.valueOf((char) c);
+                if (s.toUpperCase(Locale.ROOT).toLowerCase(Locale.ROOT).equals(s))
+                    CHARS.set(c);
+            }
+        }
+    }
+
+    private final boolean trim;
+    private final boolean foldCase;
+    private final boolean nfc;
+
+    /** Creates a normalizer.
+     *
+     * @param trim     Whether leading and trailing whitespace is removed.
+     * @param foldCase Whether case differences are removed.
+     * @param nfc      Whether the word is converted to normalization form C.
+     */
+    public WordNormalizer(boolean trim, boolean foldCase, boolean nfc) {
+        this.trim = trim;
+        this.foldCase = foldCase;
+        this.nfc = nfc;
+    }
+
+    /** Returns the normalizer used for a database.
+     *
+     * @param database The database, or null.
+     * @return The normalizer registered for the database's name, or FOLDING if there is none.
+     */
+    public static WordNormalizer forDatabase(Database database) {
+        return database == null ? FOLDING : forDatabase(database.getName());
+    }
+
+    /** Returns the normalizer used for a database.
+     *
+     * @param databaseName Name of the database.
+     * @return The normalizer registered for the name, or FOLDING if there is none.
+     */
+    public static WordNormalizer forDatabase(String databaseName) {
+        return byDatabase.getOrDefault(databaseName, FOLDING);
+    }
+
+    /** Registers the normalizer used for a database, replacing the previous one. Caches and mirrors created before
+     * the call may still hold keys normalized the previous way.
+     *
+     * @param databaseName Name of the database.
+     * @param normalizer   The normalizer, or null to use FOLDING again.
+     */
+    public static void register(String databaseName, WordNormalizer normalizer) {
+        if (normalizer == null)
+            byDatabase.remove(databaseName);
+        else
+            byDatabase.put(databaseName, normalizer);
+    }
+
+    /** Normalizes a word for use as a cache or index key.
+     *
+     * @param word The word as typed or received.
+     * @return The normalized word; the same instance if the word is already normalized.
+     */
+    public String normalize(String word) {
+        if (isNormalizedAscii(word))
+            return word;
+
+        String result = trim ? word.strip() : word;
+        if (foldCase)
+            result = fold(result);
+        // Case mapping may produce combining sequences, so the composition comes last
+        if (nfc && !isBelowCombiningMarks(result) && !Normalizer.isNormalized(result, Normalizer.Form.NFC))
+            result = Normalizer.normalize(result, Normalizer.Form.NFC);
+        return result;
+    }
+
+    /** Normalizes a word for sending it to the server. Case is kept, since servers match case-insensitively where
+     * the database allows it, and the reply should show the word as typed.
+     *
+     * @param word The word as typed.
+     * @return The trimmed word in NFC, if enabled; the same instance if there is nothing to change.
+     */
+    public String toQuery(String word) {
+        String result = trim ? word.strip() : word;
+        if (nfc && !Normalizer.isNormalized(result, Normalizer.Form.NFC))
+            result = Normalizer.normalize(result, Normalizer.Form.NFC);
+        return result;
+    }
+
+    /** Normalizes a MATCH pattern for use as a cache key. Patterns of literal strategies are normalized as words;
+     * patterns of any other strategy, such as regular expressions where [A-Z] and [a-z] differ, are returned as is.
+     *
+     * @param pattern      The pattern as typed.
+     * @param strategyName Name of the strategy the pattern is matched with.
+     * @return The normalized pattern, or the pattern itself if the strategy is not literal.
+     */
+    public String normalizePattern(String pattern, String strategyName) {
+        return isLiteralStrategy(strategyName) ? normalize(pattern) : pattern;
+    }
+
+    /** Normalizes a MATCH pattern for sending it to the server, as toQuery does for literal strategies.
+     *
+     * @param pattern      The pattern as typed.
+     * @param strategyName Name of the strategy the pattern is matched with.
+     * @return The pattern to be sent.
+     */
+    public String toPatternQuery(String pattern, String strategyName) {
+        return isLiteralStrategy(strategyName) ? toQuery(pattern) : pattern;
+    }
+
+    /** Checks whether a MATCH strategy takes a word rather than a pattern with its own syntax.
+     *
+     * @param strategyName Name of the strategy.
+     * @return True for exact, prefix, suffix, substring, lev and soundex.
+     */
+    public static boolean isLiteralStrategy(String strategyName) {
+        return LITERAL_STRATEGIES.contains(strategyName);
+    }
+
+    /** Checks in a single pass whether a word is pure ASCII and needs no change. ASCII is always in NFC, so only
+     * whitespace and upper case letters need to be looked for.
+     */
+    private boolean isNormalizedAscii(String word) {
+        int length = word.length();
+        if (trim && length > 0 && (isAsciiSpace(word.charAt(0)) || isAsciiSpace(word.charAt(length - 1))))
+            return false;
+        for (int i = 0; i < length; i++) {
+            char c = word.charAt(i);
+            if (c >= 0x80 || (foldCase && c >= 'A' && c <= 'Z'))
+                return false;
+        }
+        return true;
+    }
+
+    /** Checks whether a word only has characters below the combining diacritical marks, such as precomposed Latin
+     * letters. No sequence of these characters changes under NFC, so the word is in NFC without asking Normalizer,
+     * which allocates even for words that are already normalized.
+     */
+    private static boolean isBelowCombiningMarks(String word) {
+        for (int i = 0; i < word.length(); i++)
+            if (word.charAt(i) >= '\u0300')
+                return false;
+        return true;
+    }
+
+    private static boolean isAsciiSpace(char c) {
+        return c <= ' ';
+    }
+
+    /** Removes case differences. Upper-casing first maps characters without a single lower case form consistently,
+     * e.g., "\u00df" and "SS" both become "ss", and final and non-final sigma become the same letter.
+     */
+    private static String fold(String word) {
+        // Words without upper case letters, such as accented words typed in lower case, are kept without mapping them
+        if (isFoldStable(word))
+            return word;
+        String folded = word.toUpperCase(Locale.ROOT).toLowerCase(Locale.ROOT);
+        // Keep the original instance if nothing changed, so the result can be compared by reference
+        return folded.equals(word) ? word : folded;
+    }
+
+    private static boolean isFoldStable(String word) {
+        for (int i = 0; i < word.length(); i++)
+            if (!FoldStable.CHARS.get(word.charAt(i)))
+                return false;
+        return true;
+    }
+}
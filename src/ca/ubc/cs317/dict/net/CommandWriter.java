@@ -0,0 +1,91 @@
+package ca.ubc.cs317.dict.net;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Buffered writer for DICT commands. Commands are encoded in UTF-8 into a reusable buffer and only written to the
+ * underlying stream when flushed, so several queued commands go out in a single write. This class is not thread-safe;
+ * callers are expected to hold the connection lock.
+ */
+public class CommandWriter {
+
+    private static final byte[] LINE_END = {'\r', '\n'};
+
+    private final OutputStream out;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private ByteBuffer buffer = ByteBuffer.allocate(512);
+
+    public CommandWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    /** Adds a command to the buffer without sending it. The line terminator is added by this method.
+     *
+     * @param command The command line, without a line terminator.
+     * @throws IllegalArgumentException If the command contains a line break, which would make the server read it as
+     * several commands, and the replies no longer match the commands sent.
+     */
+    public void queue(String command) {
+        if (command.indexOf('\r') >= 0 || command.indexOf('\n') >= 0)
+            throw new IllegalArgumentException("Commands can't contain line breaks");
+        CharBuffer chars = CharBuffer.wrap(command);
+        encoder.reset();
+        while (encoder.encode(chars, buffer, true).isOverflow())
+            grow();
+        while (encoder.flush(buffer).isOverflow())
+            grow();
+        if (buffer.remaining() < LINE_END.length)
+            grow();
+        buffer.put(LINE_END);
+    }
+
+    /** Writes all queued commands to the stream in a single write, and flushes the stream. The queued commands are
+     * discarded even if the write fails, since some of them may already have been sent, and sending them again with
+     * later commands would pair the server's replies with the wrong commands.
+     *
+     * @throws IOException If the commands can't be written.
+     */
+    public void flush() throws IOException {
+        if (buffer.position() > 0) {
+            try {
+                out.write(buffer.array(), 0, buffer.position());
+            } finally {
+                buffer.clear();
+            }
+        }
+        out.flush();
+    }
+
+    /** Queues a command and immediately flushes it, together with any other command already queued.
+     *
+     * @param command The command line, without a line terminator.
+     * @throws IOException If the commands can't be written.
+     */
+    public void send(String command) throws IOException {
+        queue(command);
+        flush();
+    }
+
+    /** Returns the number of bytes queued and not yet flushed.
+     *
+     * @return The number of pending bytes.
+     */
+    public int pendingBytes() {
+        return buffer.position();
+    }
+
+    private void grow() {
+        ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+        buffer.flip();
+        larger.put(buffer);
+        buffer = larger;
+    }
+}
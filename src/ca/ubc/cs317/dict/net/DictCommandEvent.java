@@ -0,0 +1,73 @@
+package ca.ubc.cs317.dict.net;
+
+import jdk.jfr.*;
+
+/**
+ * Flight Recorder event emitted for every DICT command, with the time spent in each phase of the request. The event
+ * is only committed while a recording has it enabled, so it costs next to nothing otherwise.
+ */
+@Name("ca.ubc.cs317.dict.Command")
+@Label("DICT Command")
+@Category({"DICT Client"})
+@Description("A command sent to a DICT server and the reading of its reply")
+@StackTrace(false)
+class DictCommandEvent extends Event {
+
+    @Label("Command")
+    String command;
+
+    @Label("Database")
+    String database;
+
+    @Label("Strategy")
+    String strategy;
+
+    @Label("Argument")
+    @Description("The word or pattern looked up, or the server address for CONNECT")
+    String argument;
+
+    @Label("Lock Wait")
+    @Description("Time waiting for the connection to be free")
+    @Timespan(Timespan.NANOSECONDS)
+    long lockWait;
+
+    @Label("Write")
+    @Description("Time sending the command, or establishing the connection for CONNECT")
+    @Timespan(Timespan.NANOSECONDS)
+    long write;
+
+    @Label("First Status Line")
+    @Description("Time from sending the command to receiving the first line of the reply")
+    @Timespan(Timespan.NANOSECONDS)
+    long firstLine;
+
+    @Label("Body Transfer")
+    @Description("Time waiting for the remaining lines of the reply")
+    @Timespan(Timespan.NANOSECONDS)
+    long transfer;
+
+    @Label("Parse")
+    @Description("Time processing the lines of the reply")
+    @Timespan(Timespan.NANOSECONDS)
+    long parse;
+
+    @Label("Demand Wait")
+    @Description("Time waiting for a streaming subscriber to request more matches")
+    @Timespan(Timespan.NANOSECONDS)
+    long demandWait;
+
+    @Label("Bytes Written")
+    @DataAmount
+    long bytesWritten;
+
+    @Label("Bytes Read")
+    @Description("Approximate size of the reply, counting one byte per character")
+    @DataAmount
+    long bytesRead;
+
+    @Label("Status Code")
+    int statusCode;
+
+    @Label("Error")
+    String error;
+}
@@ -5,6 +5,9 @@ package ca.ubc.cs317.dict.net;
  */
 public class DictConnectionException extends Exception {
 
+    // Status code of the negative reply that caused the exception, or 0 if it was not caused by a negative reply
+    private int statusCode;
+
     public DictConnectionException() {
     }
 
@@ -19,4 +22,24 @@ public class DictConnectionException extends Exception {
     public DictConnectionException(String message, Throwable cause) {
         super(message, cause);
     }
+
+    public DictConnectionException(String message, int statusCode) {
+        super(message + " (" + statusCode + ")");
+        this.statusCode = statusCode;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /** Checks whether the exception reports a negative reply: a single status line the server sent instead of the
+     * reply to a command. That reply is complete, so the connection is still in step with the commands and can be
+     * used again. Any other failure, such as a reply that ended early or couldn't be parsed, may leave the rest of a
+     * reply unread, and the connection should be discarded.
+     *
+     * @return True if the server sent a negative reply.
+     */
+    public boolean isNegativeReply() {
+        return statusCode != 0;
+    }
 }
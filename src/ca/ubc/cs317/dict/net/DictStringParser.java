@@ -26,4 +26,55 @@ public class DictStringParser {
         }
         return list.toArray(new String[list.size()]);
     }
+
+    /** Checks whether a String can be sent as a DICT atom, such as a database or strategy name: one or more printable
+     * ASCII characters other than space and the quote and backslash characters (RFC 2229, section 2.2).
+     *
+     * @param value String to be checked.
+     * @return True if the string is a valid atom.
+     */
+    public static boolean isAtom(String value) {
+        if (value == null || value.isEmpty())
+            return false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c <= ' ' || c >= 0x7f || c == '"' || c == '\'' || c == '\\')
+                return false;
+        }
+        return true;
+    }
+
+    /** Checks whether a String can be sent as a quoted DICT string. Control characters, in particular CR and LF,
+     * can't be escaped, and would end the command line early.
+     *
+     * @param value String to be checked.
+     * @return True if the string contains no control characters.
+     */
+    public static boolean isQuotable(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < ' ' || c == 0x7f)
+                return false;
+        }
+        return true;
+    }
+
+    /** Formats a String as a double-quoted DICT string, escaping quotes and backslashes with a backslash.
+     *
+     * @param value String to be quoted.
+     * @return The quoted string.
+     * @throws IllegalArgumentException If the string contains control characters.
+     */
+    public static String quote(String value) {
+        if (!isQuotable(value))
+            throw new IllegalArgumentException("Control characters can't be sent to the server");
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\')
+                quoted.append('\\');
+            quoted.append(c);
+        }
+        return quoted.append('"').toString();
+    }
 }
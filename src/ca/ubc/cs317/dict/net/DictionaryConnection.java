@@ -7,6 +7,8 @@ import ca.ubc.cs317.dict.model.MatchingStrategy;
 import java.io.*;
 import java.net.Socket;
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
 
 /**
  * Created by Jonatan on 2017-09-09.
@@ -15,11 +17,13 @@ import java.util.*;
 public class DictionaryConnection {
 
     private Socket socket;
-    private DataOutputStream dos;
+    private CommandWriter writer;
     private BufferedReader br;
 
+    // Trace of the command being executed, only accessed while holding the connection lock
+    private RequestTrace trace;
 
-    private static final int DEFAULT_PORT = 2628;
+    public static final int DEFAULT_PORT = 2628;
 
     /** Establishes a new connection with a DICT server using an explicit host and port number, and handles initial
      * welcome messages.
@@ -30,41 +34,86 @@ public class DictionaryConnection {
      * don't match their expected value.
      */
     public DictionaryConnection(String host, int port) throws DictConnectionException {
+        this(host, port, null);
+    }
+
+    /** Establishes a new connection with a DICT server using an explicit host and port number, recording all traffic
+     * exchanged on the connection, and handles initial welcome messages.
+     *
+     * @param host Name of the host where the DICT server is running
+     * @param port Port number used by the DICT server
+     * @param capture Capture recording the bytes sent and received by the connection, or null.
+     * @throws DictConnectionException If the host does not exist, the connection can't be established, or the messages
+     * don't match their expected value.
+     */
+    public DictionaryConnection(String host, int port, WireCapture capture) throws DictConnectionException {
+        // The handshake is traced as a CONNECT command, whose write phase is establishing the connection
+        trace = RequestTrace.start("CONNECT", null, null, host + ":" + port);
+        trace.lockAcquired();
         try {
             // Connect to socket using host and port
             socket = new Socket(host, port);
+            trace.written(0);
 
-            // Save input stream reader and output stream to class properties to use throughout the methods
-            br = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
-            dos = new DataOutputStream(socket.getOutputStream());
-
-            // Read welcome message
-            // Initialize variables for reading message to string, reading code from message string, and condition
-            // variable to know when to stop reading the message
-            String code = "";
-            String msg;
-            boolean stop = false;
-            while(!stop) {
-                msg = br.readLine();
-                if (msg == null) {
-                    throw new DictConnectionException("Received Empty Message");
-                }
-
-                if (Character.isDigit(msg.charAt(0))) {
-                    // If the message string starts with number, that number is the response code
-                    code = msg.substring(0,3);
-                }
+            // Commands are coalesced by the writer and flushed explicitly, so Nagle's algorithm would only delay them
+            socket.setTcpNoDelay(true);
 
-                // Check if code tells us to stop reading message
-                // Will throw error if invalid code eg. starts with "5"
-                stop = StopReadingFromDict(code);
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            if (capture != null) {
+                int stream = capture.newStream();
+                in = capture.wrapInput(in, stream);
+                out = capture.wrapOutput(out, stream);
             }
+
+            // Save input stream reader and command writer to class properties to use throughout the methods
+            br = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+            writer = new CommandWriter(out);
+
+            readWelcome();
         } catch (Exception e) {
             // Any exceptions related to incorrect or invalid connection info provided should be caught here
+            trace.failed(e);
             throw new DictConnectionException(e);
+        } finally {
+            trace.finish();
+            trace = null;
         }
     }
 
+    /** Establishes a connection over existing streams instead of a socket, and handles initial welcome messages. This
+     * is used to replay captured traffic without a server.
+     *
+     * @param in Stream with the bytes sent by the server, starting with its welcome message.
+     * @param out Stream receiving the commands sent to the server.
+     * @throws DictConnectionException If the messages don't match their expected value.
+     */
+    public DictionaryConnection(InputStream in, OutputStream out) throws DictConnectionException {
+        trace = RequestTrace.start("CONNECT", null, null, null);
+        trace.lockAcquired();
+        trace.written(0);
+        try {
+            br = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+            writer = new CommandWriter(out);
+            readWelcome();
+        } catch (Exception e) {
+            trace.failed(e);
+            throw new DictConnectionException(e);
+        } finally {
+            trace.finish();
+            trace = null;
+        }
+    }
+
+    /** Reads the welcome message sent by the server when the connection is established.
+     *
+     * @throws IOException If the message can't be read.
+     * @throws DictConnectionException If the message doesn't match its expected value.
+     */
+    private void readWelcome() throws IOException, DictConnectionException {
+        checkCompletion(readStatus());
+    }
+
     /** Establishes a new connection with a DICT server using an explicit host, with the default DICT port number, and
      * handles initial welcome messages.
      *
@@ -81,36 +130,31 @@ public class DictionaryConnection {
      *
      */
     public synchronized void close() {
+        if (br == null)
+            return;
         try {
-            dos.writeBytes("QUIT\n");
-
-            // Initialize variables for reading message to string, reading code from message string, and condition
-            // variable to know when to stop reading the message
-            String code = "";
-            String msg;
-            boolean stop = false;
-            while(!stop) {
+            writer.send("QUIT");
+            // Anything left of an earlier reply is skipped; 221 acknowledges the QUIT
+            String msg = br.readLine();
+            while (msg != null && !msg.startsWith("221"))
                 msg = br.readLine();
-
-                if (Character.isDigit(msg.charAt(0))) {
-                    // If the message string starts with number, that number is the response code
-                    code = msg.substring(0,3);
-                }
-
-                if (code.equals("221")) {
-                    // This code in response to the "QUIT" command means we can safely close the socket.
+        } catch (IOException | RuntimeException e) {
+            // The connection is closed below either way
+        } finally {
+            try {
+                // Connections created over streams have no socket, so their input stream is closed instead
+                if (socket != null)
                     socket.close();
-                    stop = true;
-                }
+                else
+                    br.close();
+            } catch (IOException e) {
+                // Nothing else can be done with a socket that fails to close
             }
-        } catch (IOException e) {
-            // Any extraneous IO exceptions should be caught here
-            e.printStackTrace();
+            // Set socket and streams/readers to null
+            socket = null;
+            writer = null;
+            br = null;
         }
-        // Set socket and streams/readers to null
-        socket = null;
-        dos = null;
-        br = null;
     }
 
     /** Requests and retrieves all definitions for a specific word.
@@ -123,64 +167,115 @@ public class DictionaryConnection {
      * @return A collection of Definition objects containing all definitions returned by the server.
      * @throws DictConnectionException If the connection was interrupted or the messages don't match their expected value.
      */
-    public synchronized Collection<Definition> getDefinitions(String word, Database database) throws DictConnectionException {
-        Collection<Definition> set = new ArrayList<>();
-        try {
+    public Collection<Definition> getDefinitions(String word, Database database) throws DictConnectionException {
+        return exchange(RequestTrace.start("DEFINE", database.getName(), null, word), () -> {
             // Format arguments as command string
-            String command = "DEFINE " + database.getName() + " \"" + word + "\"\n";
-            dos.writeBytes(command);
-
-            // Initialize variables for reading message to string, reading code from message string, and condition
-            // variable to know when to stop reading the message.
-            // We also need a variable to save the definition read from the message string,
-            // and a placeholder string variable for the dictionary name read from the message
-            String code = "";
-            String msg;
-            boolean stop = false;
-            Definition def = new Definition(word, database.getName());
-            String realDictName = "";
-            while(!stop) {
-                msg = br.readLine();
-                if (msg.length() > 1 && Character.isDigit(msg.charAt(0))) {
-                    // If the message string starts with number, that number is the response code
-                    code = msg.substring(0,3);
-
-                    if (code.equals("151")) {
-                        // Only when a new code is sent we want to check if we need to grab the dictionary name from the
-                        // message.
-                        // Eg. when the * or ! is specified we need to extract the dictName from the message
-                        realDictName = getDictNameFromMsg(msg);
-                        def = new Definition(word, realDictName);
-                    }
-
-                } else if (msg.length() > 1 && code.equals("151")) {
-                    // This ELSE IF statement makes it so that the first line with the code is not added to the definition.
-                    // Only append to definition when code is currently equal to 151 and the message is not empty.
-                    def.appendDefinition(msg);
-                } else if (msg.length() == 0) {
-                    // This ELSE IF statement adds a new line when there is one.
-                    def.appendDefinition(msg);
-                }
+            send(defineCommand(word, database));
+            return readDefinitions(word, database);
+        });
+    }
 
-                // Check if code tells us to stop reading message
-                // Will throw error if invalid code eg. starts with "5"
-                stop = StopReadingFromDict(code);
+    /** Requests and retrieves all definitions for several words, pipelining the requests: all DEFINE commands are sent
+     * in a single write before any reply is read, so the connection waits for one round trip instead of one per word.
+     *
+     * @param words The words whose definitions are to be retrieved.
+     * @param database The database to be used to retrieve the definitions, as in getDefinitions.
+     * @return A map from each word to the collection of definitions returned by the server for it, in request order.
+     * @throws DictConnectionException If the connection was interrupted, the messages don't match their expected
+     * value, or the server sent a negative reply to any of the requests. In the latter case all replies are still
+     * read, so the connection remains usable, and the exception's isNegativeReply() is true.
+     */
+    public Map<String, Collection<Definition>> getDefinitions(List<String> words, Database database) throws DictConnectionException {
+        Map<String, DictConnectionException> failures = new LinkedHashMap<>();
+        Map<String, Collection<Definition>> definitions = getDefinitions(words, database, failures);
+        if (!failures.isEmpty())
+            throw failures.values().iterator().next();
+        return definitions;
+    }
 
-                if (msg.equals(".")){
-                    // end of definition, add definition to definition set and reset placeholder definition variables
-                    set.add(def);
-                    def = new Definition(word, database.getName());
-                    realDictName = "";
+    /** Requests and retrieves all definitions for several words, pipelining the requests as in
+     * getDefinitions(words, database). A word whose request fails on its own, because the server sent a negative reply
+     * to it or because it can't be sent, is reported in the failures instead of failing the whole batch.
+     *
+     * @param words The words whose definitions are to be retrieved.
+     * @param database The database to be used to retrieve the definitions, as in getDefinitions.
+     * @param failures Map receiving, for each word that failed, the exception describing why.
+     * @return A map from each word that did not fail to the collection of definitions returned by the server for it,
+     * in request order.
+     * @throws DictConnectionException If the connection was interrupted or the messages don't match their expected
+     * value. The rest of the batch is then abandoned, since its replies can no longer be told apart, and the
+     * connection should be discarded.
+     */
+    public Map<String, Collection<Definition>> getDefinitions(List<String> words, Database database,
+                                                              Map<String, DictConnectionException> failures) throws DictConnectionException {
+        // The whole batch is traced as a single command
+        String argument = words.size() == 1 ? words.get(0) : words.size() + " words";
+        return exchange(RequestTrace.start("DEFINE", database.getName(), null, argument), () -> {
+            Map<String, Collection<Definition>> definitions = new LinkedHashMap<>();
+            // All commands are formatted before any is queued, so an invalid word can't leave part of the batch queued
+            List<String> sent = new ArrayList<>(words.size());
+            List<String> commands = new ArrayList<>(words.size());
+            for (String word : words) {
+                try {
+                    commands.add(defineCommand(word, database));
+                    sent.add(word);
+                } catch (DictConnectionException e) {
+                    failures.put(word, e);
                 }
+            }
+            for (String command : commands)
+                writer.queue(command);
+            flush();
+
+            for (String word : sent) {
+                try {
+                    definitions.put(word, readDefinitions(word, database));
+                } catch (DictConnectionException e) {
+                    // Only a negative reply, a single status line, leaves the next reply readable
+                    if (!e.isNegativeReply())
+                        throw e;
+                    failures.put(word, e);
+                }
+            }
+            return definitions;
+        });
+    }
 
+    /** Formats a DEFINE command.
+     *
+     * @param word The word whose definition is to be retrieved.
+     * @param database The database to be used to retrieve the definition.
+     * @return The command line, without a line terminator.
+     * @throws DictConnectionException If the database name is not an atom or the word contains control characters.
+     */
+    private String defineCommand(String word, Database database) throws DictConnectionException {
+        return "DEFINE " + atom(database.getName()) + " " + quote(word);
+    }
 
+    /** Reads the reply to a DEFINE command.
+     *
+     * @param word The word whose definition was requested.
+     * @param database The database used in the request.
+     * @return A collection of Definition objects containing all definitions in the reply.
+     * @throws IOException If the reply can't be read.
+     * @throws DictConnectionException If the messages don't match their expected value, or the reply is negative.
+     */
+    private Collection<Definition> readDefinitions(String word, Database database) throws IOException, DictConnectionException {
+        Collection<Definition> set = new ArrayList<>();
+        Status status = readStatus();
+        if (status.getStatusCode() == 150) {
+            // Each definition is a 151 status line followed by its body, up to the "." line; 250 ends the reply.
+            // The definition itself is only created once its body is complete, so the body is encoded once.
+            for (status = readStatus(); status.getStatusCode() == 151; status = readStatus()) {
+                // The dictionary name is taken from the status line, since * and ! name no single database
+                String realDictName = getDictNameFromMsg(status.getDetails());
+                StringBuilder body = null;
+                for (String line = readTextLine(); line != null; line = readTextLine())
+                    body = appendDefinitionLine(body, line);
+                set.add(new Definition(word, realDictName, body == null ? null : body.toString()));
             }
-
-        } catch (IOException e) {
-            // Any extraneous IO exceptions should be caught here
-            throw new DictConnectionException();
         }
-
+        checkCompletion(status);
         return set;
     }
 
@@ -194,51 +289,127 @@ public class DictionaryConnection {
      * @return A set of word matches returned by the server.
      * @throws DictConnectionException If the connection was interrupted or the messages don't match their expected value.
      */
-    public synchronized Set<String> getMatchList(String word, MatchingStrategy strategy, Database database) throws DictConnectionException {
-        Set<String> set = new LinkedHashSet<>();
-        try {
-            // Format arguments as MATCH command string
-            String command = "MATCH " + database.getName() + " " + strategy.getName() + " ";
-            command = command + Arrays.toString(DictStringParser.splitAtoms(word))
-                    .replace("[", "\"")
-                    .replace("]", "\"")
-                    + "\n";
-            dos.writeBytes(command);
-
-            // Initialize variables for reading message to string, reading code from message string, and condition
-            // variable to know when to stop reading the message.
-            String code = "";
-            String msg;
-            boolean stop = false;
-            while(!stop) {
-                msg = br.readLine();
+    public Set<String> getMatchList(String word, MatchingStrategy strategy, Database database) throws DictConnectionException {
+        return exchange(RequestTrace.start("MATCH", database.getName(), strategy.getName(), word), () -> {
+            Set<String> set = new LinkedHashSet<>();
+            send(matchCommand(word, strategy, database));
+            readMatches((match, trace) -> {
+                set.add(match);
+                return true;
+            });
+            return set;
+        });
+    }
 
-                if (msg.length() > 1 && Character.isDigit(msg.charAt(0))) {
-                    // If the message string starts with number, that number is the response code
-                    code = msg.substring(0,3);
+    /** Requests a list of matches for a specific word pattern, publishing each match as soon as it is read instead of
+     * collecting them all first. The request is only sent when a subscriber subscribes, and each subscription sends it
+     * again. Lines are only read from the server while the subscriber has outstanding demand, so a slow subscriber
+     * holds back the server instead of buffering the reply. If the subscriber cancels, the rest of the reply is read
+     * and discarded, so the connection remains usable.
+     *
+     * The connection is locked from the moment the request is sent until the reply has been read, so other requests
+     * on this connection wait until the subscriber completes or cancels. A subscriber that has no outstanding demand
+     * for longer than the "dict.matchDemandTimeoutMillis" system property (30s if not set) is cancelled and receives a
+     * TimeoutException, so it can't hold the connection indefinitely. Matches are delivered on a new daemon thread.
+     *
+     * @param word     The word pattern to be matched.
+     * @param strategy The strategy to be used to retrieve the list of matches (e.g., prefix, exact).
+     * @param database The database to be used to retrieve the matches, as in getMatchList.
+     * @return A publisher of the word matches returned by the server, in the server's order. Unlike getMatchList,
+     * duplicates are not removed.
+     */
+    public Flow.Publisher<String> publishMatchList(String word, MatchingStrategy strategy, Database database) {
+        return publishMatchList(word, strategy, database, task -> {
+            Thread thread = new Thread(task, "dict-match-publisher");
+            thread.setDaemon(true);
+            thread.start();
+        });
+    }
+
+    /** Requests a list of matches for a specific word pattern, as publishMatchList(word, strategy, database), reading
+     * the reply and delivering matches on a task run by the given executor. The task blocks while the subscriber has
+     * no outstanding demand.
+     *
+     * @param word     The word pattern to be matched.
+     * @param strategy The strategy to be used to retrieve the list of matches.
+     * @param database The database to be used to retrieve the matches.
+     * @param executor Executor running the task that reads the reply.
+     * @return A publisher of the word matches returned by the server.
+     */
+    public Flow.Publisher<String> publishMatchList(String word, MatchingStrategy strategy, Database database, Executor executor) {
+        return new MatchPublisher(sink ->
+                exchange(RequestTrace.start("MATCH", database.getName(), strategy.getName(), word), () -> {
+                    // An invalid argument is reported to the subscriber through onError
+                    send(matchCommand(word, strategy, database));
+                    readMatches(sink);
+                    return null;
+                }), executor);
+    }
 
-                } else if (!msg.equals(".")) {
-                    // end of match, but not the end of message
+    /** Formats a MATCH command.
+     *
+     * @param word     The word pattern to be matched.
+     * @param strategy The strategy to be used to retrieve the list of matches.
+     * @param database The database to be used to retrieve the matches.
+     * @return The command line, without a line terminator.
+     * @throws DictConnectionException If the database or strategy name is not an atom or the word contains control
+     * characters.
+     */
+    private String matchCommand(String word, MatchingStrategy strategy, Database database) throws DictConnectionException {
+        // Control characters are rejected before the word is split, since quoted atoms may contain line breaks
+        quote(word);
+        // Format arguments as MATCH command string
+        String command = "MATCH " + atom(database.getName()) + " " + atom(strategy.getName()) + " ";
+        return command + quote(String.join(", ", DictStringParser.splitAtoms(word)));
+    }
 
-                    if (msg.contains("\"")) {
-                        // Find the index of the " character, which marks the start of the word to be matched
-                        String theWord = msg.substring(msg.indexOf("\"")+1, msg.length() - 1);
-                        set.add(theWord);
-                    }
-                }
+    /** Checks that a database or strategy name can be sent as an atom. Names are sent as is, so a name containing
+     * spaces or line breaks would otherwise add arguments or commands to the line.
+     *
+     * @param name The name to be sent.
+     * @return The name.
+     * @throws DictConnectionException If the name is not a valid atom.
+     */
+    private static String atom(String name) throws DictConnectionException {
+        if (!DictStringParser.isAtom(name))
+            throw new DictConnectionException("Invalid database or strategy name: " + name);
+        return name;
+    }
 
-                // Check if code tells us to stop reading message
-                // Will throw error if invalid code eg. starts with "5"
-                stop = StopReadingFromDict(code);
+    /** Quotes a word, escaping quotes and backslashes.
+     *
+     * @param word The word to be sent.
+     * @return The quoted word.
+     * @throws DictConnectionException If the word contains control characters, such as line breaks.
+     */
+    private static String quote(String word) throws DictConnectionException {
+        if (!DictStringParser.isQuotable(word))
+            throw new DictConnectionException("Words can't contain control characters");
+        return DictStringParser.quote(word);
+    }
 
+    /** Reads the reply to a MATCH command, passing each match to a sink. Once the sink declines a match, the rest of
+     * the reply is still read, but discarded.
+     *
+     * @param sink Receiver of the matches.
+     * @throws IOException If the reply can't be read.
+     * @throws DictConnectionException If the messages don't match their expected value, or the reply is negative.
+     */
+    private void readMatches(MatchPublisher.Sink sink) throws IOException, DictConnectionException {
+        Status status = readStatus();
+        if (status.getStatusCode() == 152) {
+            // The matches are a text block up to the "." line, one "database "word"" per line
+            boolean delivering = true;
+            for (String msg = readTextLine(); msg != null; msg = readTextLine()) {
+                if (delivering && msg.contains("\"")) {
+                    // Find the index of the " character, which marks the start of the word to be matched
+                    String theWord = msg.substring(msg.indexOf("\"")+1, msg.length() - 1);
+                    delivering = sink.accept(theWord, trace);
+                }
             }
-
-        } catch (IOException e) {
-            // Any extraneous IO exceptions should be caught here
-            throw new DictConnectionException();
+            status = readStatus();
         }
-
-        return set;
+        checkCompletion(status);
     }
 
     /** Requests and retrieves a map of database name to an equivalent database object for all valid databases used in the server.
@@ -246,37 +417,16 @@ public class DictionaryConnection {
      * @return A map of Database objects supported by the server.
      * @throws DictConnectionException If the connection was interrupted or the messages don't match their expected value.
      */
-    public synchronized Map<String, Database> getDatabaseList() throws DictConnectionException {
-        Map<String, Database> databaseMap = new HashMap<>();
-
-        try {
-            String command = "SHOW DB\n";
-            dos.writeBytes(command);
-
-            // Initialize variables for reading message to string, reading code from message string, and condition
-            // variable to know when to stop reading the message.
-            String code;
-            String msg;
-            boolean stop = false;
-            while(!stop) {
-                msg = br.readLine();
-
-                if (msg.length() > 3) {
-
-                    if (Character.isDigit(msg.charAt(0))) {
-                        // If the message string starts with number, that number is the response code
-                        code = msg.substring(0, 3);
-
-                        // Code 110 marks the beginning of db definition.
-                        if (code.equals("110")) {
-                            msg = br.readLine();
-                        }
+    public Map<String, Database> getDatabaseList() throws DictConnectionException {
+        return exchange(RequestTrace.start("SHOW DB", null, null, null), () -> {
+            Map<String, Database> databaseMap = new HashMap<>();
 
-                        // Determine if this is the end of definitions.
-                        // will throw error if invalid code eg. starts with "5"
-                        stop = StopReadingFromDict(code);
-                    }
+            String command = "SHOW DB";
+            send(command);
 
+            Status status = readStatus();
+            if (status.getStatusCode() == 110) {
+                for (String msg = readTextLine(); msg != null; msg = readTextLine()) {
                     if (msg.contains("\"")) {
                         // The " character marks the start of the db name and the next " marks the start of the description.
                         String name = msg.substring(0, msg.indexOf("\"")).trim();
@@ -284,15 +434,12 @@ public class DictionaryConnection {
                         databaseMap.put(name, new Database(name, description));
                     }
                 }
-
+                status = readStatus();
             }
+            checkCompletion(status);
 
-        } catch (IOException e) {
-            // Any extraneous IO exceptions should be caught here
-            throw new DictConnectionException();
-        }
-
-        return databaseMap;
+            return databaseMap;
+        });
     }
 
     /** Requests and retrieves a list of all valid matching strategies supported by the server.
@@ -300,36 +447,15 @@ public class DictionaryConnection {
      * @return A set of MatchingStrategy objects supported by the server.
      * @throws DictConnectionException If the connection was interrupted or the messages don't match their expected value.
      */
-    public synchronized Set<MatchingStrategy> getStrategyList() throws DictConnectionException {
-        Set<MatchingStrategy> set = new LinkedHashSet<>();
-        try {
-            String command = "SHOW STRATEGIES\n";
-            dos.writeBytes(command);
-
-            // Initialize variables for reading message to string, reading code from message string, and condition
-            // variable to know when to stop reading the message.
-            String code;
-            String msg;
-            boolean stop = false;
-            while(!stop) {
-                msg = br.readLine();
-
-                if (msg.length() > 3) {
-
-                    if (Character.isDigit(msg.charAt(0))) {
-                        // If the message string starts with number, that number is the response code
-                        code = msg.substring(0, 3);
-
-                        // Code 110 marks the beginning of strategy
-                        if (code.equals("111")) {
-                            msg = br.readLine();
-                        }
-
-                        // Determine if this is the end of message.
-                        // will throw error if invalid code eg. starts with "5"
-                        stop = StopReadingFromDict(code);
-                    }
-
+    public Set<MatchingStrategy> getStrategyList() throws DictConnectionException {
+        return exchange(RequestTrace.start("SHOW STRATEGIES", null, null, null), () -> {
+            Set<MatchingStrategy> set = new LinkedHashSet<>();
+            String command = "SHOW STRATEGIES";
+            send(command);
+
+            Status status = readStatus();
+            if (status.getStatusCode() == 111) {
+                for (String msg = readTextLine(); msg != null; msg = readTextLine()) {
                     if (msg.contains("\"")) {
                         // Use " characters as markers for string parsing
                         String name = msg.substring(0, msg.indexOf("\"")).trim();
@@ -337,49 +463,144 @@ public class DictionaryConnection {
                         set.add(new MatchingStrategy(name, description));
                     }
                 }
-
+                status = readStatus();
             }
+            checkCompletion(status);
+
+            return set;
+        });
+    }
+
+    /** A command exchanged with the server: writes the command and reads its reply. */
+    private interface Exchange<T> {
+        T run() throws IOException, DictConnectionException;
+    }
 
-        } catch (IOException e) {
-            // Any extraneous IO exceptions should be caught here
-            throw new DictConnectionException();
+    /** Runs a command exchange while holding the connection lock, tracing it.
+     *
+     * @param trace The trace of the command, started before waiting for the lock.
+     * @param exchange The exchange to be run.
+     * @return The result of the exchange.
+     * @throws DictConnectionException If the connection was interrupted or the messages don't match their expected
+     * value.
+     */
+    private <T> T exchange(RequestTrace trace, Exchange<T> exchange) throws DictConnectionException {
+        synchronized (this) {
+            trace.lockAcquired();
+            this.trace = trace;
+            try {
+                return exchange.run();
+            } catch (IOException e) {
+                // Any extraneous IO exceptions should be caught here
+                trace.failed(e);
+                throw new DictConnectionException();
+            } catch (DictConnectionException | RuntimeException e) {
+                trace.failed(e);
+                throw e;
+            } finally {
+                this.trace = null;
+                trace.finish();
+            }
         }
+    }
 
-        //return databaseMap;
+    /** Queues a command and immediately flushes it, together with any other command already queued.
+     *
+     * @param command The command line, without a line terminator.
+     * @throws IOException If the commands can't be written.
+     */
+    private void send(String command) throws IOException {
+        writer.queue(command);
+        flush();
+    }
 
-        return set;
+    private void flush() throws IOException {
+        int bytes = writer.pendingBytes();
+        writer.flush();
+        trace.written(bytes);
     }
 
-    /** Checks a code number in a string to determine if we can stop reading message from input reader
+    /** Reads a line from the server, recording it in the trace of the current command.
      *
-     * @param currentCode 3 digit code retrieved from message
-     * @return A boolean representing if we should stop reading from input reader
-     * @throws DictConnectionException If code represents some problem with the connection.
+     * @return The line read.
+     * @throws IOException If the line can't be read.
+     * @throws DictConnectionException If the server closed the connection.
      */
-    private boolean StopReadingFromDict(String currentCode) throws DictConnectionException {
-        //System.out.println("Code:" + currentCode );
-        if (currentCode.startsWith("1")) {
-            // There is text to follow
-            return false;
-        } else if (currentCode.startsWith("250")) {
-            // this is the last message
-            return true;
-        } else if (currentCode.startsWith("220")) {
-            //connection finished
-            return true;
-        } else if (currentCode.startsWith("4")) {
-            // transient connection failure
-            throw new DictConnectionException("Transient Negative Completion");
-        } else if (currentCode.startsWith("50")) {
-            throw new DictConnectionException("Syntax Error");
-        } else if (currentCode.startsWith("53")) {
-            throw new DictConnectionException("Access Denied");
-        } else if (currentCode.startsWith("55")) {
-            // Don't throw error, valid command, but for reasons, no matches
-            return true;
+    private String readLine() throws IOException, DictConnectionException {
+        long started = System.nanoTime();
+        String line = br.readLine();
+        trace.lineRead(started, System.nanoTime(), line);
+        if (line == null)
+            throw new DictConnectionException("Connection closed by the server");
+        return line;
+    }
+
+    /** Reads a status line. Status lines are only read where the protocol puts them: as the first line of a reply,
+     * or after the "." line ending a text block. A line of a text block is never taken for a status line, even if it
+     * starts with digits, such as a definition body line reading "404 ...".
+     *
+     * @return The status read.
+     * @throws IOException If the line can't be read.
+     * @throws DictConnectionException If the line is not a status line, or the server closed the connection.
+     */
+    private Status readStatus() throws IOException, DictConnectionException {
+        return Status.parse(readLine());
+    }
+
+    /** Reads a line of a text block, such as a definition body or a list of matches.
+     *
+     * @return The line read, with the leading "." of lines starting with "." removed, or null once the "." line
+     * ending the block was read.
+     * @throws IOException If the line can't be read.
+     * @throws DictConnectionException If the server closed the connection.
+     */
+    private String readTextLine() throws IOException, DictConnectionException {
+        String line = readLine();
+        if (line.equals("."))
+            return null;
+        return line.startsWith("..") ? line.substring(1) : line;
+    }
+
+    /** Checks the status line ending a reply. A negative status line is a complete reply of its own, sent instead of
+     * the expected one, so the connection is still in step with the commands after it.
+     *
+     * @param status The status read where the reply was expected to end.
+     * @throws DictConnectionException If the reply is negative, with its status code, or if the status line is not
+     * one that can end a reply, without status code, as the rest of the reply can't be told apart from the next one.
+     */
+    private static void checkCompletion(Status status) throws DictConnectionException {
+        int code = status.getStatusCode();
+        switch (status.getStatusType()) {
+            case Status.COMPLETION_REPLY:
+                return;
+            case Status.TRANSIENT_NEGATIVE_REPLY:
+                throw new DictConnectionException("Transient Negative Completion", code);
+            case Status.PERMANENT_NEGATIVE_REPLY:
+                if (code / 10 == 55) {
+                    // Don't throw error, valid command, but for reasons, no matches
+                    return;
+                }
+                if (code / 10 == 50)
+                    throw new DictConnectionException("Syntax Error", code);
+                if (code / 10 == 53)
+                    throw new DictConnectionException("Access Denied", code);
+                throw new DictConnectionException("Permanent Negative Completion", code);
+            default:
+                throw new DictConnectionException("Unexpected status line: " + code + " " + status.getDetails());
         }
+    }
 
-        return false;
+    /** Appends a line to a definition body being built, separating lines the same way as
+     * Definition.appendDefinition.
+     *
+     * @param body The body built so far, or null if no line was read yet.
+     * @param line The line to be appended.
+     * @return The body with the line appended.
+     */
+    private StringBuilder appendDefinitionLine(StringBuilder body, String line) {
+        if (body == null)
+            return new StringBuilder(line);
+        return body.append(System.lineSeparator()).append(line);
     }
 
     /** Parses a dict name from a message string
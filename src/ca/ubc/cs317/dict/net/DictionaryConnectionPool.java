@@ -0,0 +1,143 @@
+package ca.ubc.cs317.dict.net;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A bounded pool of connections to the same DICT server. A DictionaryConnection handles a single command at a time,
+ * so callers that run lookups concurrently borrow a connection from the pool for the duration of each lookup.
+ * Connections are opened lazily, up to the pool size, and a connection that fails with an I/O error is discarded
+ * instead of being returned to the pool.
+ */
+public class DictionaryConnectionPool {
+
+    /** A lookup to be run with a pooled connection. */
+    public interface Operation<T> {
+        T apply(DictionaryConnection connection) throws DictConnectionException;
+    }
+
+    private final String host;
+    private final int port;
+    private final int maxConnections;
+
+    private final BlockingQueue<DictionaryConnection> idle = new LinkedBlockingQueue<>();
+    // One permit per connection that may be borrowed, whether it is already open or not
+    private final Semaphore available;
+    private volatile boolean closed = false;
+
+    /** Creates a pool of connections to a DICT server. No connection is opened until it is first needed.
+     *
+     * @param host           Name of the host where the DICT server is running
+     * @param port           Port number used by the DICT server
+     * @param maxConnections Maximum number of connections open at the same time
+     */
+    public DictionaryConnectionPool(String host, int port, int maxConnections) {
+        this.host = host;
+        this.port = port;
+        this.maxConnections = maxConnections;
+        this.available = new Semaphore(maxConnections, true);
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /** Returns the server this pool connects to, in the form used to tell apart lookups of different servers.
+     *
+     * @return The host and port of the DICT server, as host:port.
+     */
+    public String getServer() {
+        return host + ":" + port;
+    }
+
+    /** Runs an operation with a connection borrowed from the pool, waiting for one to be available if needed.
+     *
+     * @param operation The operation to be run.
+     * @return The value returned by the operation.
+     * @throws DictConnectionException If a connection can't be established, or the operation fails.
+     */
+    public <T> T execute(Operation<T> operation) throws DictConnectionException {
+        DictionaryConnection connection = acquire();
+        boolean reusable = false;
+        try {
+            T result = operation.apply(connection);
+            reusable = true;
+            return result;
+        } catch (DictConnectionException e) {
+            // A negative reply leaves the connection in a known state; anything else may have left a reply half read
+            reusable = e.isNegativeReply();
+            throw e;
+        } finally {
+            if (reusable)
+                release(connection);
+            else
+                discard(connection);
+        }
+    }
+
+    /** Borrows a connection from the pool. Each borrowed connection must be given back with either
+     * {@link #release(DictionaryConnection)} or {@link #discard(DictionaryConnection)}.
+     *
+     * @return A connection that is not used by anyone else.
+     * @throws DictConnectionException If the pool is closed, the thread is interrupted, or a new connection can't be
+     * established.
+     */
+    public DictionaryConnection acquire() throws DictConnectionException {
+        if (closed)
+            throw new DictConnectionException("Connection pool is closed");
+        try {
+            available.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DictConnectionException(e);
+        }
+
+        DictionaryConnection connection = idle.poll();
+        if (connection != null)
+            return connection;
+        try {
+            return new DictionaryConnection(host, port);
+        } catch (DictConnectionException e) {
+            available.release();
+            throw e;
+        }
+    }
+
+    /** Returns a connection to the pool so it can be reused.
+     *
+     * @param connection A connection previously returned by {@link #acquire()}.
+     */
+    public void release(DictionaryConnection connection) {
+        if (closed)
+            connection.close();
+        else
+            idle.add(connection);
+        available.release();
+    }
+
+    /** Closes a borrowed connection that is no longer usable, freeing its place in the pool.
+     *
+     * @param connection A connection previously returned by {@link #acquire()}.
+     */
+    public void discard(DictionaryConnection connection) {
+        try {
+            connection.close();
+        } catch (RuntimeException e) {
+            // The connection is already broken, so failing to close it cleanly is expected
+        }
+        available.release();
+    }
+
+    /** Closes all idle connections. Connections borrowed at this point are closed when they are given back.
+     */
+    public void close() {
+        closed = true;
+        List<DictionaryConnection> connections = new ArrayList<>();
+        idle.drainTo(connections);
+        for (DictionaryConnection connection : connections)
+            connection.close();
+    }
+}
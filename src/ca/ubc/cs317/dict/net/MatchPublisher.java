@@ -0,0 +1,178 @@
+package ca.ubc.cs317.dict.net;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Publisher of the matches of a MATCH request, created by DictionaryConnection.publishMatchList. Each subscription
+ * runs the request on a task of its own, which blocks before reading each match until the subscriber has requested
+ * it.
+ *
+ * The connection stays locked while the task waits for demand, so a subscriber that stops requesting matches would
+ * block every other command on the connection. If no demand arrives within the timeout set by the
+ * "dict.matchDemandTimeoutMillis" system property (30s if not set), the subscription is cancelled, the rest of the
+ * reply is discarded, and the subscriber receives a TimeoutException through onError.
+ */
+class MatchPublisher implements Flow.Publisher<String> {
+
+    private static final long DEMAND_TIMEOUT_NANOS =
+            TimeUnit.MILLISECONDS.toNanos(Long.getLong("dict.matchDemandTimeoutMillis", 30_000));
+
+    /** Receiver of matches as they are read. */
+    interface Sink {
+        /** Receives a match. Time spent waiting for the subscriber to request the match is recorded in the trace.
+         *
+         * @param match The matched word.
+         * @param trace The trace of the MATCH command.
+         * @return True to receive more matches, false to have the rest of the reply discarded.
+         */
+        boolean accept(String match, RequestTrace trace);
+    }
+
+    /** Sends the request and reads its reply into a sink. */
+    interface Source {
+        void run(Sink sink) throws DictConnectionException;
+    }
+
+    private final Source source;
+    private final Executor executor;
+
+    MatchPublisher(Source source, Executor executor) {
+        this.source = source;
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super String> subscriber) {
+        MatchSubscription subscription = new MatchSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        executor.execute(subscription::run);
+    }
+
+    private class MatchSubscription implements Flow.Subscription, Sink {
+
+        private final Flow.Subscriber<? super String> subscriber;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition demandAvailable = lock.newCondition();
+        private long demand = 0;
+        private boolean cancelled = false;
+        // Error reported to the subscriber once the reply was read: an invalid request, or a demand timeout
+        private Throwable failure = null;
+
+        MatchSubscription(Flow.Subscriber<? super String> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            lock.lock();
+            try {
+                if (n <= 0 && failure == null) {
+                    // Reported to the subscriber by the reading task, which owns all signals to the subscriber
+                    failure = new IllegalArgumentException("Non-positive request: " + n);
+                    cancelled = true;
+                } else if (n > 0)
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                demandAvailable.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            lock.lock();
+            try {
+                cancelled = true;
+                demandAvailable.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void run() {
+            try {
+                source.run(this);
+            } catch (DictConnectionException e) {
+                if (!isCancelled())
+                    subscriber.onError(e);
+                return;
+            } catch (RuntimeException e) {
+                // Most likely thrown by the subscriber; the reply was not fully read, so it can't be recovered
+                if (!isCancelled())
+                    subscriber.onError(e);
+                return;
+            }
+
+            lock.lock();
+            Throwable error;
+            boolean wasCancelled;
+            try {
+                error = failure;
+                wasCancelled = cancelled;
+            } finally {
+                lock.unlock();
+            }
+            if (error != null)
+                subscriber.onError(error);
+            else if (!wasCancelled)
+                subscriber.onComplete();
+        }
+
+        @Override
+        public boolean accept(String match, RequestTrace trace) {
+            lock.lock();
+            trace.demandWaitStarted();
+            try {
+                // Not reading the next line until there is demand is what holds back the server
+                long deadline = System.nanoTime() + DEMAND_TIMEOUT_NANOS;
+                boolean interrupted = false;
+                while (demand == 0 && !cancelled) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        failure = new TimeoutException("No demand for "
+                                + TimeUnit.NANOSECONDS.toMillis(DEMAND_TIMEOUT_NANOS) + "ms, match list discarded");
+                        cancelled = true;
+                        break;
+                    }
+                    try {
+                        demandAvailable.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        // Waiting is uninterruptible, as the rest of the reply has to be read either way
+                        interrupted = true;
+                    }
+                }
+                trace.demandWaitEnded();
+                if (interrupted)
+                    Thread.currentThread().interrupt();
+                if (cancelled)
+                    return false;
+                demand--;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                subscriber.onNext(match);
+            } catch (RuntimeException e) {
+                // A subscriber that throws is considered to have cancelled its subscription
+                cancel();
+                return false;
+            }
+            return !isCancelled();
+        }
+
+        private boolean isCancelled() {
+            lock.lock();
+            try {
+                return cancelled && failure == null;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package ca.ubc.cs317.dict.net;
+
+import ca.ubc.cs317.dict.model.Database;
+import ca.ubc.cs317.dict.model.MatchingStrategy;
+import ca.ubc.cs317.dict.model.WordNormalizer;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs a MATCH for several strategies and databases at once, each on its own pooled connection, and merges the
+ * matches into a single ranked list of suggestions. All branches share a deadline: matches from branches that
+ * complete in time are returned, and branches that are still running are left to finish in the background, so the
+ * latency is bounded by the deadline rather than by the slowest branch.
+ *
+ * Suggestions are ranked by the priority of the best strategy that found them (the order in which strategies are
+ * given), then by the number of branches that found them, then by the order the server returned them in. Matches
+ * that only differ once normalized, such as "Apple" and "apple" from two databases, are merged.
+ */
+public class MultiStrategyMatcher {
+
+    /** The merged outcome of a multi-strategy match. */
+    public static class Result {
+        private final List<String> suggestions;
+        private final int completed;
+        private final int timedOut;
+        private final int failed;
+
+        Result(List<String> suggestions, int completed, int timedOut, int failed) {
+            this.suggestions = suggestions;
+            this.completed = completed;
+            this.timedOut = timedOut;
+            this.failed = failed;
+        }
+
+        /** Returns the merged suggestions, best first.
+         *
+         * @return An unmodifiable list of suggestions.
+         */
+        public List<String> getSuggestions() {
+            return suggestions;
+        }
+
+        public int getCompletedBranches() {
+            return completed;
+        }
+
+        public int getTimedOutBranches() {
+            return timedOut;
+        }
+
+        public int getFailedBranches() {
+            return failed;
+        }
+
+        /** Returns true if some branches did not contribute, because they failed or missed the deadline. */
+        public boolean isPartial() {
+            return timedOut > 0 || failed > 0;
+        }
+    }
+
+    /** Ranking information about one suggestion. */
+    private static class Candidate {
+        final String word;
+        final int order;
+        int bestPriority;
+        int frequency;
+        int lastBranch = -1;
+
+        Candidate(String word, int order, int priority) {
+            this.word = word;
+            this.order = order;
+            this.bestPriority = priority;
+        }
+    }
+
+    private static final Comparator<Candidate> RANKING = Comparator.<Candidate>comparingInt(c -> c.bestPriority)
+            .thenComparing(Comparator.<Candidate>comparingInt(c -> c.frequency).reversed())
+            .thenComparingInt(c -> c.order);
+
+    private final DictionaryConnectionPool pool;
+    private final Executor executor;
+
+    /** Creates a matcher.
+     *
+     * @param pool     Pool providing a connection to each branch.
+     * @param executor Executor running the branches; it should have as many threads as the pool has connections.
+     */
+    public MultiStrategyMatcher(DictionaryConnectionPool pool, Executor executor) {
+        this.pool = pool;
+        this.executor = executor;
+    }
+
+    /** Matches a word with every combination of the given strategies and databases, concurrently.
+     *
+     * @param word       The word pattern to be matched.
+     * @param strategies The strategies to be used, in order of priority (e.g., prefix, lev, soundex).
+     * @param databases  The databases to be used.
+     * @param timeout    Time allowed for the whole match.
+     * @param unit       Unit of the timeout.
+     * @return The merged suggestions of the branches that completed in time.
+     * @throws DictConnectionException If every branch failed; the exception is the one of the first branch.
+     * @throws InterruptedException If the thread is interrupted while waiting for the branches.
+     */
+    public Result match(String word, List<MatchingStrategy> strategies, Collection<Database> databases, long timeout,
+                        TimeUnit unit) throws DictConnectionException, InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+        List<Future<Set<String>>> branches = new ArrayList<>();
+        List<Integer> priorities = new ArrayList<>();
+        for (int priority = 0; priority < strategies.size(); priority++) {
+            MatchingStrategy strategy = strategies.get(priority);
+            for (Database database : databases) {
+                FutureTask<Set<String>> branch = new FutureTask<>(() -> {
+                    // A branch still queued at the deadline would only delay the next match
+                    if (System.nanoTime() - deadline >= 0)
+                        throw new CancellationException("Deadline passed before the branch started");
+                    return pool.execute(connection -> connection.getMatchList(word, strategy, database));
+                });
+                executor.execute(branch);
+                branches.add(branch);
+                priorities.add(priority);
+            }
+        }
+
+        Map<String, Candidate> candidates = new HashMap<>();
+        int completed = 0;
+        int timedOut = 0;
+        int failed = 0;
+        DictConnectionException firstError = null;
+        for (int i = 0; i < branches.size(); i++) {
+            Set<String> matches;
+            try {
+                matches = branches.get(i).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                timedOut++;
+                continue;
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof CancellationException)
+                    timedOut++;
+                else {
+                    failed++;
+                    if (firstError == null)
+                        firstError = e.getCause() instanceof DictConnectionException
+                                ? (DictConnectionException) e.getCause() : new DictConnectionException(e.getCause());
+                }
+                continue;
+            }
+
+            completed++;
+            int priority = priorities.get(i);
+            for (String match : matches) {
+                String key = WordNormalizer.FOLDING.normalize(match);
+                Candidate candidate = candidates.get(key);
+                if (candidate == null) {
+                    candidate = new Candidate(match, candidates.size(), priority);
+                    candidates.put(key, candidate);
+                }
+                candidate.bestPriority = Math.min(candidate.bestPriority, priority);
+                // Spellings merged within a branch count once
+                if (candidate.lastBranch != i) {
+                    candidate.lastBranch = i;
+                    candidate.frequency++;
+                }
+            }
+        }
+
+        if (completed == 0 && firstError != null && timedOut == 0)
+            throw firstError;
+
+        List<Candidate> ranked = new ArrayList<>(candidates.values());
+        ranked.sort(RANKING);
+        List<String> suggestions = new ArrayList<>(ranked.size());
+        for (Candidate candidate : ranked)
+            suggestions.add(candidate.word);
+        return new Result(Collections.unmodifiableList(suggestions), completed, timedOut, failed);
+    }
+}
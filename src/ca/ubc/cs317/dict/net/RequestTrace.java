@@ -0,0 +1,195 @@
+package ca.ubc.cs317.dict.net;
+
+/**
+ * Timings of a single DICT command, split into the phases of the request: waiting for the connection lock, writing
+ * the command, waiting for the first status line, waiting for the rest of the reply, processing the lines read, and
+ * waiting for a streaming subscriber to request more of the reply.
+ * When the command completes the trace is emitted as a DictCommandEvent, and logged by SlowQueryLog if it was slow.
+ * A trace is only updated by the thread holding the connection lock.
+ */
+final class RequestTrace {
+
+    private final String command;
+    private final String database;
+    private final String strategy;
+    private final String argument;
+    private final DictCommandEvent event = new DictCommandEvent();
+
+    private final long started;
+    private long lockAcquired;
+    private long written;
+    private long firstLine;
+    private long finished;
+    private long transferNanos;
+    private long demandWaitStarted;
+    private long demandWaitNanos;
+    private long bytesWritten;
+    private long bytesRead;
+    private String lastLine;
+    private String error;
+
+    private RequestTrace(String command, String database, String strategy, String argument) {
+        this.command = command;
+        this.database = database;
+        this.strategy = strategy;
+        this.argument = argument;
+        this.event.begin();
+        this.started = System.nanoTime();
+    }
+
+    /** Starts tracing a command. Must be called before waiting for the connection lock.
+     *
+     * @param command  The command name, e.g., DEFINE.
+     * @param database Name of the database used by the command, or null.
+     * @param strategy Name of the strategy used by the command, or null.
+     * @param argument The word or pattern looked up, or null.
+     * @return The new trace.
+     */
+    static RequestTrace start(String command, String database, String strategy, String argument) {
+        return new RequestTrace(command, database, strategy, argument);
+    }
+
+    void lockAcquired() {
+        lockAcquired = System.nanoTime();
+    }
+
+    /** Records that commands were written to the server.
+     *
+     * @param bytes Number of bytes written.
+     */
+    void written(int bytes) {
+        bytesWritten += bytes;
+        written = System.nanoTime();
+    }
+
+    /** Records a line read from the server. Time spent reading lines after the first one counts as body transfer.
+     *
+     * @param readStarted Value of System.nanoTime() before reading the line.
+     * @param readEnded   Value of System.nanoTime() after reading the line.
+     * @param line        The line read, or null if the stream ended.
+     */
+    void lineRead(long readStarted, long readEnded, String line) {
+        if (firstLine == 0)
+            firstLine = readEnded;
+        else
+            transferNanos += readEnded - readStarted;
+        if (line != null) {
+            bytesRead += line.length() + 2;
+            lastLine = line;
+        }
+    }
+
+    /** Records that reading the reply is paused until the subscriber requests more of it. The pause is not counted as
+     * parsing, since no line is processed meanwhile.
+     */
+    void demandWaitStarted() {
+        demandWaitStarted = System.nanoTime();
+    }
+
+    void demandWaitEnded() {
+        demandWaitNanos += System.nanoTime() - demandWaitStarted;
+    }
+
+    void failed(Exception e) {
+        error = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+    }
+
+    /** Completes the trace, emitting its event and logging it if it was slow. */
+    void finish() {
+        finished = System.nanoTime();
+        event.end();
+        if (event.shouldCommit()) {
+            event.command = command;
+            event.database = database;
+            event.strategy = strategy;
+            event.argument = argument;
+            event.lockWait = getLockWaitNanos();
+            event.write = getWriteNanos();
+            event.firstLine = getFirstLineNanos();
+            event.transfer = getTransferNanos();
+            event.parse = getParseNanos();
+            event.demandWait = getDemandWaitNanos();
+            event.bytesWritten = bytesWritten;
+            event.bytesRead = bytesRead;
+            event.statusCode = getStatusCode();
+            event.error = error;
+            event.commit();
+        }
+        SlowQueryLog.record(this);
+    }
+
+    String getCommand() {
+        return command;
+    }
+
+    String getDatabase() {
+        return database;
+    }
+
+    String getStrategy() {
+        return strategy;
+    }
+
+    String getArgument() {
+        return argument;
+    }
+
+    long getTotalNanos() {
+        return finished - started;
+    }
+
+    long getLockWaitNanos() {
+        return reached(lockAcquired) - started;
+    }
+
+    long getWriteNanos() {
+        return reached(written) - reached(lockAcquired);
+    }
+
+    long getFirstLineNanos() {
+        return reached(firstLine) - reached(written);
+    }
+
+    long getTransferNanos() {
+        return transferNanos;
+    }
+
+    long getParseNanos() {
+        return Math.max(0, finished - reached(firstLine) - transferNanos - demandWaitNanos);
+    }
+
+    long getDemandWaitNanos() {
+        return demandWaitNanos;
+    }
+
+    long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    long getBytesRead() {
+        return bytesRead;
+    }
+
+    /** Returns the status code of the last status line read, which ends the reply.
+     *
+     * @return The status code, or 0 if no status line was read.
+     */
+    int getStatusCode() {
+        String line = lastLine;
+        if (line == null || line.length() < 3)
+            return 0;
+        for (int i = 0; i < 3; i++)
+            if (!Character.isDigit(line.charAt(i)))
+                return 0;
+        return Integer.parseInt(line.substring(0, 3));
+    }
+
+    String getError() {
+        return error;
+    }
+
+    private long reached(long mark) {
+        // A phase that was never reached ends with the trace, so a command failing while writing counts as writing
+        return mark != 0 ? mark : finished;
+    }
+}
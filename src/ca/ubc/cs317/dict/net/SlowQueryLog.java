@@ -0,0 +1,54 @@
+package ca.ubc.cs317.dict.net;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Logs DICT commands that take longer than a threshold, with the time spent in each of their phases, to the
+ * "ca.ubc.cs317.dict.slowquery" logger. The threshold is read from the "dict.slowQueryMillis" system property
+ * (500ms if not set, negative to disable), and can be changed at run time.
+ */
+public final class SlowQueryLog {
+
+    private static final Logger logger = Logger.getLogger("ca.ubc.cs317.dict.slowquery");
+
+    private static volatile long thresholdNanos = millisToNanos(Long.getLong("dict.slowQueryMillis", 500));
+
+    private SlowQueryLog() {
+    }
+
+    /** Changes the threshold above which commands are logged.
+     *
+     * @param millis Threshold in milliseconds; a negative value disables the log.
+     */
+    public static void setThresholdMillis(long millis) {
+        thresholdNanos = millisToNanos(millis);
+    }
+
+    public static long getThresholdMillis() {
+        return thresholdNanos < 0 ? -1 : thresholdNanos / 1_000_000;
+    }
+
+    static void record(RequestTrace trace) {
+        long threshold = thresholdNanos;
+        if (threshold < 0 || trace.getTotalNanos() < threshold || !logger.isLoggable(Level.WARNING))
+            return;
+        logger.warning(String.format("Slow DICT %s (db=%s, strategy=%s, argument=%s): total %.1fms = lock wait %.1fms, "
+                        + "write %.1fms, first line %.1fms, transfer %.1fms, parse %.1fms, demand wait %.1fms; "
+                        + "%d bytes written, %d bytes read, status %d%s",
+                trace.getCommand(), trace.getDatabase(), trace.getStrategy(), trace.getArgument(),
+                millis(trace.getTotalNanos()), millis(trace.getLockWaitNanos()), millis(trace.getWriteNanos()),
+                millis(trace.getFirstLineNanos()), millis(trace.getTransferNanos()), millis(trace.getParseNanos()),
+                millis(trace.getDemandWaitNanos()),
+                trace.getBytesWritten(), trace.getBytesRead(), trace.getStatusCode(),
+                trace.getError() == null ? "" : ", failed: " + trace.getError()));
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static long millisToNanos(long millis) {
+        return millis < 0 ? -1 : millis * 1_000_000;
+    }
+}
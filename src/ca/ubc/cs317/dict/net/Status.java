@@ -33,6 +33,16 @@ public class Status {
         this.details = components[1];
     }
 
+    /** Parses a status line that was already read.
+     *
+     * @param line The line, or null if the stream ended.
+     * @return The status.
+     * @throws DictConnectionException If the line is not a valid status line.
+     */
+    static Status parse(String line) throws DictConnectionException {
+        return new Status(line);
+    }
+
     public static Status readStatus(BufferedReader input) throws DictConnectionException {
         try {
             return new Status(input.readLine());
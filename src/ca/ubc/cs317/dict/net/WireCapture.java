@@ -0,0 +1,205 @@
+package ca.ubc.cs317.dict.net;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records the raw bytes exchanged by DictionaryConnection instances into a compact binary file, with the time each
+ * chunk was written or read, so that the traffic can later be replayed without a server (see CaptureReplay). Several
+ * connections may share a capture; each is recorded as a separate stream. Instances are thread-safe.
+ *
+ * Layout (big-endian):
+ *   header:  int magic, byte version, long start time (milliseconds since the epoch)
+ *   records: byte direction (0 sent, 1 received), varint stream, varint microseconds since the previous record,
+ *            varint length, data bytes
+ */
+public class WireCapture implements Closeable {
+
+    private static final int MAGIC = 0x44574350; // "DWCP"
+    private static final int VERSION = 1;
+
+    private static final int SENT = 0;
+    private static final int RECEIVED = 1;
+
+    /** A chunk of bytes written or read by a connection. */
+    public static class Record {
+        private final int stream;
+        private final boolean sent;
+        private final long timeMicros;
+        private final byte[] data;
+
+        Record(int stream, boolean sent, long timeMicros, byte[] data) {
+            this.stream = stream;
+            this.sent = sent;
+            this.timeMicros = timeMicros;
+            this.data = data;
+        }
+
+        public int getStream() {
+            return stream;
+        }
+
+        /** Returns true if the bytes were sent to the server, false if they were received from it. */
+        public boolean isSent() {
+            return sent;
+        }
+
+        /** Returns the time the bytes were written or read, in microseconds since the capture started. */
+        public long getTimeMicros() {
+            return timeMicros;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+    }
+
+    private final DataOutputStream out;
+    private final long startNanos = System.nanoTime();
+    private long lastMicros = 0;
+    private int streams = 0;
+
+    private WireCapture(DataOutputStream out) {
+        this.out = out;
+    }
+
+    /** Creates a capture file, replacing any existing file.
+     *
+     * @param file Path of the capture file.
+     * @return The capture, ready to record connections.
+     * @throws IOException If the file can't be created.
+     */
+    public static WireCapture create(Path file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeLong(System.currentTimeMillis());
+        return new WireCapture(out);
+    }
+
+    /** Reads all records of a capture file.
+     *
+     * @param file Path of the capture file.
+     * @return The records, in the order they were recorded.
+     * @throws IOException If the file can't be read or is not a capture file.
+     */
+    public static List<Record> read(Path file) throws IOException {
+        List<Record> records = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION)
+                throw new IOException("Not a compatible capture file: " + file);
+            in.readLong();
+            long time = 0;
+            int direction;
+            while ((direction = in.read()) >= 0) {
+                int stream = (int) readVarint(in);
+                time += readVarint(in);
+                byte[] data = new byte[(int) readVarint(in)];
+                in.readFully(data);
+                records.add(new Record(stream, direction == SENT, time, data));
+            }
+        } catch (EOFException e) {
+            // A capture that was not closed properly ends with a truncated record, which is dropped
+        }
+        return records;
+    }
+
+    /** Assigns a stream number to a new connection.
+     *
+     * @return The stream number, used to wrap the connection's streams.
+     */
+    synchronized int newStream() {
+        return streams++;
+    }
+
+    /** Wraps the input stream of a connection so that everything read through it is recorded.
+     *
+     * @param in     Stream the connection reads from.
+     * @param stream Stream number of the connection.
+     * @return The wrapped stream.
+     */
+    InputStream wrapInput(InputStream in, int stream) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0)
+                    record(stream, RECEIVED, new byte[]{(byte) b}, 0, 1);
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int n = super.read(buffer, offset, length);
+                if (n > 0)
+                    record(stream, RECEIVED, buffer, offset, n);
+                return n;
+            }
+        };
+    }
+
+    /** Wraps the output stream of a connection so that everything written through it is recorded.
+     *
+     * @param out    Stream the connection writes to.
+     * @param stream Stream number of the connection.
+     * @return The wrapped stream.
+     */
+    OutputStream wrapOutput(OutputStream out, int stream) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                super.write(b);
+                record(stream, SENT, new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] buffer, int offset, int length) throws IOException {
+                // FilterOutputStream would write byte by byte
+                this.out.write(buffer, offset, length);
+                record(stream, SENT, buffer, offset, length);
+            }
+        };
+    }
+
+    private synchronized void record(int stream, int direction, byte[] buffer, int offset, int length) {
+        try {
+            long micros = (System.nanoTime() - startNanos) / 1000;
+            out.writeByte(direction);
+            writeVarint(out, stream);
+            writeVarint(out, micros - lastMicros);
+            writeVarint(out, length);
+            out.write(buffer, offset, length);
+            lastMicros = micros;
+        } catch (IOException e) {
+            // A failing capture must not break the connection it records
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    private static void writeVarint(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarint(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0)
+                return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+}
@@ -0,0 +1,116 @@
+package ca.ubc.cs317.dict.ui;
+
+import javax.swing.*;
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+import javax.swing.table.TableCellRenderer;
+import java.awt.*;
+import java.util.Arrays;
+
+/**
+ * Renderer for the definition column. A single wrapping text area is reused for every cell, and the wrapped height of
+ * each row is cached per (row, width) so that heights are only measured again when the row's text or the column width
+ * changes.
+ */
+public class DefinitionCellRenderer implements TableCellRenderer, TableModelListener {
+
+    private static final int UNKNOWN = -1;
+
+    private final JTextArea area = new JTextArea();
+
+    // Column width each cached height was measured at, and the measured height, indexed by row
+    private int[] measuredWidths = new int[0];
+    private int[] measuredHeights = new int[0];
+
+    public DefinitionCellRenderer() {
+        area.setLineWrap(true);
+        area.setWrapStyleWord(true);
+        area.setOpaque(true);
+    }
+
+    @Override
+    public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected, boolean hasFocus,
+                                                   int row, int column) {
+        area.setText(value == null ? "" : value.toString());
+        area.setFont(table.getFont());
+        area.setForeground(isSelected ? table.getSelectionForeground() : table.getForeground());
+        area.setBackground(UIManager.getColor(isSelected ? "Table.selectionBackground" : "Table.background"));
+        return area;
+    }
+
+    /** Returns the height needed to show the whole wrapped text of a row at the given column width. The value is
+     * measured only if it is not cached for that width yet.
+     *
+     * @param table  Table the renderer is installed on.
+     * @param row    Row (in view coordinates) whose height is to be retrieved.
+     * @param column Column (in view coordinates) rendered by this renderer.
+     * @param width  Current width of the column.
+     * @return The preferred height of the row's text, in pixels.
+     */
+    public int getWrappedHeight(JTable table, int row, int column, int width) {
+        ensureCapacity(table.getRowCount());
+        if (measuredWidths[row] == width && measuredHeights[row] != UNKNOWN)
+            return measuredHeights[row];
+
+        // The text area only reports a wrapped preferred height once it knows its width
+        table.prepareRenderer(this, row, column);
+        area.setSize(width, Short.MAX_VALUE);
+        int height = area.getPreferredSize().height;
+
+        measuredWidths[row] = width;
+        measuredHeights[row] = height;
+        return height;
+    }
+
+    /** Adjusts the height of the rows currently visible in the table so their whole definition is shown. Rows outside
+     * the viewport are left untouched until they are scrolled into view.
+     *
+     * @param table  Table the renderer is installed on.
+     * @param column Column (in view coordinates) rendered by this renderer.
+     */
+    public void updateVisibleRowHeights(JTable table, int column) {
+        if (table.getRowCount() == 0 || column >= table.getColumnCount())
+            return;
+        Rectangle visible = table.getVisibleRect();
+        int first = table.rowAtPoint(new Point(0, visible.y));
+        int last = table.rowAtPoint(new Point(0, visible.y + visible.height - 1));
+        if (first < 0)
+            return;
+        if (last < 0)
+            last = table.getRowCount() - 1;
+
+        int width = table.getColumnModel().getColumn(column).getWidth();
+        for (int row = first; row <= last; row++) {
+            int height = Math.max(getWrappedHeight(table, row, column, width), table.getRowHeight());
+            // Setting a row height revalidates the table, so only do it when the value actually changes
+            if (table.getRowHeight(row) != height)
+                table.setRowHeight(row, height);
+        }
+    }
+
+    /** Drops cached heights for rows whose content changed.
+     *
+     * @param e Event describing the change in the table model.
+     */
+    @Override
+    public void tableChanged(TableModelEvent e) {
+        if (e.getType() != TableModelEvent.UPDATE || e.getFirstRow() == TableModelEvent.HEADER_ROW
+                || e.getLastRow() == Integer.MAX_VALUE) {
+            // Structure changed, or rows were added or removed: row indices no longer line up with the cache
+            measuredWidths = new int[0];
+            measuredHeights = new int[0];
+        } else {
+            for (int row = e.getFirstRow(); row <= e.getLastRow() && row < measuredHeights.length; row++)
+                measuredHeights[row] = UNKNOWN;
+        }
+    }
+
+    private void ensureCapacity(int rows) {
+        if (measuredHeights.length >= rows)
+            return;
+        int oldLength = measuredHeights.length;
+        measuredWidths = Arrays.copyOf(measuredWidths, rows);
+        measuredHeights = Arrays.copyOf(measuredHeights, rows);
+        Arrays.fill(measuredHeights, oldLength, rows, UNKNOWN);
+    }
+}
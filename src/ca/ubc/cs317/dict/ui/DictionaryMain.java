@@ -1,42 +1,118 @@
 package ca.ubc.cs317.dict.ui;
 
+import ca.ubc.cs317.dict.cache.CachingDictionary;
+import ca.ubc.cs317.dict.cache.CompressedDefinitionStore;
+import ca.ubc.cs317.dict.cache.DefinitionCompressor;
+import ca.ubc.cs317.dict.cache.SharedDefinitionCache;
 import ca.ubc.cs317.dict.net.DictConnectionException;
 import ca.ubc.cs317.dict.model.Database;
+import ca.ubc.cs317.dict.model.Definition;
 import ca.ubc.cs317.dict.model.MatchingStrategy;
+import ca.ubc.cs317.dict.model.WordNormalizer;
 import ca.ubc.cs317.dict.net.DictionaryConnection;
+import ca.ubc.cs317.dict.net.DictionaryConnectionPool;
+import ca.ubc.cs317.dict.net.MultiStrategyMatcher;
 
 import javax.swing.*;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.TableColumnModelEvent;
+import javax.swing.event.TableColumnModelListener;
 import java.awt.*;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.Objects;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by Jonatan on 2017-09-09.
+ *
+ * Usage: java ca.ubc.cs317.dict.ui.DictionaryMain [--shared-cache path] [--compressed-cache path]
+ *
+ * With --shared-cache, definitions are also cached in a SharedDefinitionCache file, so every client started with the
+ * same file on this host answers lookups made by the others without contacting the server.
+ *
+ * With --compressed-cache, definitions are also kept in a CompressedDefinitionStore, loaded from the file on start and
+ * saved back on exit. A new store starts without a dictionary; once it holds enough definitions, it is saved with a
+ * dictionary trained from them.
  */
 public class DictionaryMain extends JFrame {
 
+    // Strategies added to the selected one in multi-strategy mode, in order of priority
+    private static final List<String> MULTI_STRATEGIES = List.of("prefix", "lev", "soundex");
+    // The selected strategy runs alongside the others, so each of them needs a connection and a thread
+    private static final int MULTI_STRATEGY_REQUESTS = MULTI_STRATEGIES.size() + 1;
+    private static final long MULTI_STRATEGY_DEADLINE_MILLIS = 800;
+
+    // Definition and match lookups kept by the in-process cache, each
+    private static final int CACHE_ENTRIES = 2_000;
+    // Budget of the compressed definition store, and the number of lookups needed to train its dictionary
+    private static final long COMPRESSED_CACHE_BYTES = 32L << 20;
+    private static final int COMPRESSED_CACHE_TRAINING_LOOKUPS = 200;
+
     private DictionaryConnection connection;
     private String serverName = "dict.org";
 
+    // Definitions and complete match lists are looked up through a cache, on connections of their own so a lookup
+    // doesn't wait for a streamed MATCH to be read
+    private DictionaryConnectionPool lookupPool;
+    private CachingDictionary dictionary;
+    private final SharedDefinitionCache sharedCache;
+    private CompressedDefinitionStore compressedCache;
+    private final Path compressedCacheFile;
+
+    // Connections and threads used by multi-strategy hints, so their MATCH requests run concurrently
+    private DictionaryConnectionPool matchPool;
+    private MultiStrategyMatcher matcher;
+    private final ExecutorService matchExecutor = Executors.newFixedThreadPool(MULTI_STRATEGY_REQUESTS, task -> {
+        Thread thread = new Thread(task, "dict-multi-match");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private final DefaultComboBoxModel<Database> databaseModel;
     private final DefaultComboBoxModel<MatchingStrategy> strategyModel;
     private final DefinitionTableModel definitionModel;
+    private final JCheckBox multiStrategyBox;
 
     private final WordSearchField wordSearchField;
     private final JTable definitionTable;
+    private final DefinitionCellRenderer definitionRenderer;
 
-    DictionaryMain() {
+    DictionaryMain(SharedDefinitionCache sharedCache, Path compressedCacheFile) throws IOException {
         super("Dictionary");
+        this.sharedCache = sharedCache;
+        this.compressedCacheFile = compressedCacheFile;
+        if (compressedCacheFile != null)
+            compressedCache = Files.exists(compressedCacheFile)
+                    ? CompressedDefinitionStore.load(compressedCacheFile, COMPRESSED_CACHE_BYTES)
+                    : new CompressedDefinitionStore(new DefinitionCompressor(new byte[0]), COMPRESSED_CACHE_BYTES);
         this.setSize(800, 600);
         this.addWindowListener(new WindowAdapter() {
             @Override
             public void windowClosing(WindowEvent e) {
                 if (connection != null)
                     connection.close();
+                if (lookupPool != null)
+                    lookupPool.close();
+                if (matchPool != null)
+                    matchPool.close();
+                try {
+                    if (sharedCache != null)
+                        sharedCache.close();
+                    if (compressedCache != null)
+                        saveCompressedCache();
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
             }
         });
         this.setDefaultCloseOperation(EXIT_ON_CLOSE);
@@ -68,6 +144,10 @@ public class DictionaryMain extends JFrame {
         c.gridwidth = GridBagConstraints.REMAINDER;
         optionsPanel.add(strategySelection, c);
 
+        multiStrategyBox = new JCheckBox("Also hint with prefix, lev and soundex matches");
+        c.gridwidth = GridBagConstraints.REMAINDER;
+        optionsPanel.add(multiStrategyBox, c);
+
         JButton disconnectButton = new JButton("Disconnect");
         disconnectButton.addActionListener(e -> establishConnection());
         c.gridwidth = GridBagConstraints.REMAINDER;
@@ -86,15 +166,46 @@ public class DictionaryMain extends JFrame {
 
         definitionModel = new DefinitionTableModel();
         definitionTable = new JTable(definitionModel);
-        definitionTable.getColumnModel().getColumn(2).setCellRenderer((table, value, isSelected, hasFocus, row, column) -> {
-            JTextArea area = new JTextArea(value.toString());
-            area.setBackground(UIManager.getColor(isSelected ? "Table.selectionBackground" : "Table.background"));
-            return area;
-        });
+        definitionRenderer = new DefinitionCellRenderer();
+        definitionModel.addTableModelListener(definitionRenderer);
+        definitionTable.getColumnModel().getColumn(2).setCellRenderer(definitionRenderer);
         definitionTable.getColumnModel().getColumn(0).setPreferredWidth(30);
         definitionTable.getColumnModel().getColumn(1).setPreferredWidth(30);
         definitionTable.getColumnModel().getColumn(2).setPreferredWidth(500);
-        this.getContentPane().add(new JScrollPane(definitionTable), BorderLayout.CENTER);
+        JScrollPane definitionScrollPane = new JScrollPane(definitionTable);
+        // Row heights are only computed for the rows in view, so update them whenever the view scrolls or the
+        // definition column is resized
+        definitionScrollPane.getViewport().addChangeListener(e -> updateDefinitionRowHeights());
+        definitionTable.getColumnModel().addColumnModelListener(new TableColumnModelListener() {
+            @Override
+            public void columnMarginChanged(ChangeEvent e) {
+                SwingUtilities.invokeLater(DictionaryMain.this::updateDefinitionRowHeights);
+            }
+
+            @Override
+            public void columnAdded(TableColumnModelEvent e) {
+            }
+
+            @Override
+            public void columnRemoved(TableColumnModelEvent e) {
+            }
+
+            @Override
+            public void columnMoved(TableColumnModelEvent e) {
+            }
+
+            @Override
+            public void columnSelectionChanged(ListSelectionEvent e) {
+            }
+        });
+        this.getContentPane().add(definitionScrollPane, BorderLayout.CENTER);
+    }
+
+    private void saveCompressedCache() throws IOException {
+        CompressedDefinitionStore store = compressedCache;
+        if (store.getCompressor().getDictionary().length == 0 && store.size() >= COMPRESSED_CACHE_TRAINING_LOOKUPS)
+            store = store.retrain(DefinitionCompressor.MAX_DICTIONARY_SIZE);
+        store.save(compressedCacheFile);
     }
 
     public void handleException(Throwable ex) {
@@ -104,24 +215,20 @@ public class DictionaryMain extends JFrame {
 
     public void showDefinitions() {
 
-        new SwingWorker<Void, Void>() {
+        new SwingWorker<Collection<Definition>, Void>() {
             private final String word = Objects.requireNonNullElse(wordSearchField.getSelectedItem(), "").toString();
 
             @Override
-            protected Void doInBackground() throws Exception {
-                definitionModel.populateDefinitions(connection.getDefinitions(word,
-                        (Database) databaseModel.getSelectedItem()));
-                return null;
+            protected Collection<Definition> doInBackground() throws Exception {
+                return dictionary.getDefinitions(word, (Database) databaseModel.getSelectedItem());
             }
 
             @Override
             protected void done() {
                 try {
-                    get(); // Just to trigger a possible exception caused by doInBackground
-                    for (int i = 0; i<definitionModel.getRowCount() ; i++) {
-                        Component c = definitionTable.prepareRenderer(definitionTable.getCellRenderer(i, 2), i, 2);
-                        definitionTable.setRowHeight(i, Math.max((int) c.getPreferredSize().getHeight(), definitionTable.getRowHeight()));
-                    }
+                    // The model is only touched on the EDT; row heights follow lazily for the rows in view
+                    definitionModel.populateDefinitions(get());
+                    updateDefinitionRowHeights();
                 } catch (InterruptedException e) {
                     e.printStackTrace();
                 } catch (ExecutionException e) {
@@ -132,9 +239,21 @@ public class DictionaryMain extends JFrame {
 
     }
 
+    private void updateDefinitionRowHeights() {
+        definitionRenderer.updateVisibleRowHeights(definitionTable, 2);
+    }
+
     public void establishConnection() {
         if (connection != null)
             connection.close();
+        if (lookupPool != null)
+            lookupPool.close();
+        if (matchPool != null)
+            matchPool.close();
+        lookupPool = null;
+        dictionary = null;
+        matchPool = null;
+        matcher = null;
 
         definitionModel.populateDefinitions(Collections.emptyList());
         databaseModel.removeAllElements();
@@ -148,11 +267,21 @@ public class DictionaryMain extends JFrame {
                     serverName);
             if (serverName == null) System.exit(0);
 
+            String host = serverName;
+            int port = DictionaryConnection.DEFAULT_PORT;
             if (serverName.contains(":")) {
                 String[] serverData = serverName.split(":", 2);
-                connection = new DictionaryConnection(serverData[0], Integer.parseInt(serverData[1]));
-            } else
-                connection = new DictionaryConnection(serverName);
+                host = serverData[0];
+                port = Integer.parseInt(serverData[1]);
+            }
+            connection = new DictionaryConnection(host, port);
+            // The in-heap caches belong to this server, so they are replaced on every connection; the compressed and
+            // shared caches are kept, since their entries are keyed by server
+            lookupPool = new DictionaryConnectionPool(host, port, 2);
+            dictionary = new CachingDictionary(lookupPool, CACHE_ENTRIES, compressedCache, sharedCache);
+            // The pool only opens connections once multi-strategy hints are used
+            matchPool = new DictionaryConnectionPool(host, port, MULTI_STRATEGY_REQUESTS);
+            matcher = new MultiStrategyMatcher(matchPool, matchExecutor);
 
             for (Database db : connection.getDatabaseList().values()) {
                 databaseModel.addElement(db);
@@ -170,15 +299,131 @@ public class DictionaryMain extends JFrame {
         wordSearchField.grabFocus();
     }
 
-    public Collection<String> getMatchList(String word) throws DictConnectionException {
-        return connection.getMatchList(word,
-                (MatchingStrategy) strategyModel.getSelectedItem(),
-                (Database) databaseModel.getSelectedItem());
+    /** Retrieves at most a given number of matches for a word, using the selected strategy and database. Once enough
+     * distinct matches were received, the rest of the reply is read but discarded, so huge replies don't have to be
+     * collected. Complete replies are cached, and answer later lookups of the same pattern.
+     *
+     * @param word  The word pattern to be matched.
+     * @param limit Maximum number of matches to be returned.
+     * @return The first distinct matches returned by the server, in the server's order.
+     * @throws DictConnectionException If the connection was interrupted or the messages don't match their expected value.
+     */
+    public Collection<String> getMatchList(String word, int limit) throws DictConnectionException {
+        Database database = (Database) databaseModel.getSelectedItem();
+        if (isMultiStrategy() && matcher != null)
+            return getMultiStrategyMatchList(WordNormalizer.forDatabase(database).toQuery(word), database, limit);
+
+        MatchingStrategy strategy = (MatchingStrategy) strategyModel.getSelectedItem();
+        Set<String> cached = dictionary.getCachedMatchList(word, strategy, database);
+        if (cached != null)
+            return cached.size() <= limit ? cached : new ArrayList<>(cached).subList(0, limit);
+
+        Set<String> matches = new LinkedHashSet<>();
+        DictConnectionException[] error = new DictConnectionException[1];
+        boolean[] complete = new boolean[1];
+        // Running the subscription on the calling thread makes subscribe return once the reply was read
+        connection.publishMatchList(WordNormalizer.forDatabase(database).toPatternQuery(word, strategy.getName()),
+                strategy,
+                database,
+                Runnable::run).subscribe(new Flow.Subscriber<>() {
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(String match) {
+                if (matches.add(match) && matches.size() >= limit)
+                    subscription.cancel();
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                error[0] = e instanceof DictConnectionException ? (DictConnectionException) e
+                        : new DictConnectionException(e);
+            }
+
+            @Override
+            public void onComplete() {
+                complete[0] = true;
+            }
+        });
+        if (error[0] != null)
+            throw error[0];
+        // A cancelled reply is incomplete, and must not answer later lookups
+        if (complete[0])
+            dictionary.putMatchList(word, strategy, database, matches);
+        return matches;
+    }
+
+    /** Retrieves matches for a word with the selected strategy and the prefix, lev and soundex strategies at once,
+     * ranked by strategy, in the order above, and by how many strategies found them. Strategies that take longer than
+     * the deadline are left out.
+     *
+     * @param word     The word pattern to be matched.
+     * @param database The database to be used to retrieve the matches.
+     * @param limit    Maximum number of matches to be returned.
+     * @return The best ranked matches.
+     * @throws DictConnectionException If every strategy failed.
+     */
+    private Collection<String> getMultiStrategyMatchList(String word, Database database, int limit)
+            throws DictConnectionException {
+        MatchingStrategy selected = getSelectedStrategy();
+        List<MatchingStrategy> strategies = new ArrayList<>();
+        if (selected != null)
+            strategies.add(selected);
+        for (String name : MULTI_STRATEGIES) {
+            for (int i = 0; i < strategyModel.getSize(); i++) {
+                MatchingStrategy strategy = strategyModel.getElementAt(i);
+                // Only strategies the server supports are used
+                if (strategy.getName().equals(name) && !strategies.contains(strategy))
+                    strategies.add(strategy);
+            }
+        }
+
+        try {
+            List<String> suggestions = matcher.match(word, strategies, List.of(database),
+                    MULTI_STRATEGY_DEADLINE_MILLIS, TimeUnit.MILLISECONDS).getSuggestions();
+            return suggestions.subList(0, Math.min(limit, suggestions.size()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DictConnectionException(e);
+        }
+    }
+
+    public boolean isMultiStrategy() {
+        return multiStrategyBox.isSelected();
+    }
+
+    public MatchingStrategy getSelectedStrategy() {
+        return (MatchingStrategy) strategyModel.getSelectedItem();
     }
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        SharedDefinitionCache sharedCache = null;
+        Path compressedCacheFile = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--shared-cache": sharedCache = SharedDefinitionCache.attach(Path.of(args[++i])); break;
+                case "--compressed-cache": compressedCacheFile = Path.of(args[++i]); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        SharedDefinitionCache shared = sharedCache;
+        Path compressed = compressedCacheFile;
         SwingUtilities.invokeLater(() -> {
-            DictionaryMain main = new DictionaryMain();
+            DictionaryMain main;
+            try {
+                main = new DictionaryMain(shared, compressed);
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.exit(1);
+                return;
+            }
             main.setVisible(true);
             main.establishConnection();
         });
@@ -0,0 +1,131 @@
+package ca.ubc.cs317.dict.ui;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decides when the search field asks the server for suggestions. The policy keeps a moving average of the latency and
+ * result count observed for each strategy and prefix length, and uses it to delay MATCH requests while the user is
+ * still typing, to skip requests expected to be both huge and slow, and to raise the minimum prefix length while the
+ * server as a whole is slow. This class is not thread-safe; it is only used on the event dispatch thread.
+ */
+public class SuggestionPolicy {
+
+    /** Returned by getDelay when no request should be sent. */
+    public static final int SKIP = -1;
+
+    // Prefix lengths from this one up share their statistics
+    private static final int MAX_TRACKED_LENGTH = 8;
+    // Weight of a new observation in the moving averages
+    private static final double ALPHA = 0.3;
+
+    private static final int MIN_DELAY_MILLIS = 50;
+    private static final int MAX_DELAY_MILLIS = 600;
+    private static final int HUGE_DELAY_MILLIS = 300;
+    private static final double SLOW_MILLIS = 400;
+    private static final int MAX_MIN_PREFIX_LENGTH = 4;
+
+    /** Moving averages for one strategy and prefix length. */
+    private static class Observations {
+        double latencyMillis;
+        double resultCount;
+        double truncatedRate;
+        int samples;
+
+        void record(double latencyMillis, int resultCount, boolean truncated) {
+            if (samples++ == 0) {
+                this.latencyMillis = latencyMillis;
+                this.resultCount = resultCount;
+                this.truncatedRate = truncated ? 1 : 0;
+            } else {
+                this.latencyMillis += ALPHA * (latencyMillis - this.latencyMillis);
+                this.resultCount += ALPHA * (resultCount - this.resultCount);
+                this.truncatedRate += ALPHA * ((truncated ? 1 : 0) - this.truncatedRate);
+            }
+        }
+    }
+
+    private final int suggestionLimit;
+    private final Map<String, Observations[]> observations = new HashMap<>();
+
+    // Server-wide latency, used to detect pressure regardless of the prefix being typed
+    private double serverLatencyMillis = 0;
+    private int minPrefixLength = 1;
+
+    /** Creates a policy with no observations.
+     *
+     * @param suggestionLimit Maximum number of suggestions requested from the server.
+     */
+    public SuggestionPolicy(int suggestionLimit) {
+        this.suggestionLimit = suggestionLimit;
+    }
+
+    public int getSuggestionLimit() {
+        return suggestionLimit;
+    }
+
+    public int getMinPrefixLength() {
+        return minPrefixLength;
+    }
+
+    /** Decides how long to wait for the user to stop typing before requesting suggestions for a prefix.
+     *
+     * @param strategy     Name of the matching strategy used.
+     * @param prefixLength Length of the typed prefix.
+     * @return The delay in milliseconds, or SKIP if no request should be sent for this prefix.
+     */
+    public int getDelay(String strategy, int prefixLength) {
+        if (prefixLength < minPrefixLength)
+            return SKIP;
+
+        Observations observed = find(strategy, prefixLength);
+        if (observed == null || observed.samples == 0)
+            return MIN_DELAY_MILLIS;
+
+        // The reply will be cut at the limit anyway, but a huge reply still has to be read to the end
+        boolean huge = observed.truncatedRate > 0.5 || observed.resultCount >= suggestionLimit * 0.9;
+        if (huge && observed.latencyMillis > SLOW_MILLIS) {
+            // Let the estimate decay, so the prefix length is tried again after a while in case the server recovered
+            observed.latencyMillis *= 0.9;
+            return SKIP;
+        }
+
+        // Waiting about as long as a request takes avoids sending requests that are stale before they complete
+        int delay = (int) Math.max(MIN_DELAY_MILLIS, Math.min(MAX_DELAY_MILLIS, observed.latencyMillis));
+        return huge ? Math.max(delay, HUGE_DELAY_MILLIS) : delay;
+    }
+
+    /** Records the outcome of a suggestion request.
+     *
+     * @param strategy      Name of the matching strategy used.
+     * @param prefixLength  Length of the prefix sent.
+     * @param latencyMillis Time taken by the request.
+     * @param resultCount   Number of suggestions received, up to the limit.
+     * @param truncated     True if the server had more suggestions than the limit.
+     */
+    public void record(String strategy, int prefixLength, double latencyMillis, int resultCount, boolean truncated) {
+        Observations[] byLength = observations.computeIfAbsent(strategy, s -> new Observations[MAX_TRACKED_LENGTH + 1]);
+        int index = Math.min(prefixLength, MAX_TRACKED_LENGTH);
+        if (byLength[index] == null)
+            byLength[index] = new Observations();
+        byLength[index].record(latencyMillis, resultCount, truncated);
+
+        serverLatencyMillis += ALPHA * (latencyMillis - serverLatencyMillis);
+        if (serverLatencyMillis > SLOW_MILLIS && minPrefixLength < MAX_MIN_PREFIX_LENGTH)
+            minPrefixLength++;
+        else if (serverLatencyMillis < SLOW_MILLIS / 2 && minPrefixLength > 1)
+            minPrefixLength--;
+    }
+
+    /** Records a failed suggestion request, which counts as a slow one for the server-wide latency. */
+    public void recordFailure() {
+        serverLatencyMillis += ALPHA * (MAX_DELAY_MILLIS * 2 - serverLatencyMillis);
+        if (serverLatencyMillis > SLOW_MILLIS && minPrefixLength < MAX_MIN_PREFIX_LENGTH)
+            minPrefixLength++;
+    }
+
+    private Observations find(String strategy, int prefixLength) {
+        Observations[] byLength = observations.get(strategy);
+        return byLength == null ? null : byLength[Math.min(prefixLength, MAX_TRACKED_LENGTH)];
+    }
+}
@@ -1,9 +1,12 @@
 package ca.ubc.cs317.dict.ui;
 
+import ca.ubc.cs317.dict.model.MatchingStrategy;
+
 import javax.swing.*;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 import javax.swing.plaf.metal.MetalComboBoxEditor;
+import java.util.Collection;
 import java.util.LinkedHashSet;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
@@ -18,6 +21,10 @@ public class WordSearchField extends JComboBox<String> implements DocumentListen
 
     private DefaultComboBoxModel<String> model;
 
+    // Decides when suggestions are requested, from the latency and size of previous requests
+    private final SuggestionPolicy policy = new SuggestionPolicy(100);
+    private final Timer suggestionTimer = new Timer(0, e -> requestSuggestions());
+
     public WordSearchField(DictionaryMain main) {
 
         this.setModel(model = new DefaultComboBoxModel<>());
@@ -37,9 +44,11 @@ public class WordSearchField extends JComboBox<String> implements DocumentListen
         });
         textField = (JTextField) getEditor().getEditorComponent();
         textField.getDocument().addDocumentListener(this);
+        suggestionTimer.setRepeats(false);
     }
 
     public void reset() {
+        suggestionTimer.stop();
         model.removeAllElements();
         textField.setText("");
     }
@@ -60,29 +69,75 @@ public class WordSearchField extends JComboBox<String> implements DocumentListen
     }
 
 
+    /** Schedules a request for suggestions for the text typed so far, replacing any request not sent yet. The policy
+     * decides how long to wait for the user to stop typing, or whether to skip the request altogether.
+     */
     public void showSuggestions() {
         final String typed = textField.getText();
+        suggestionTimer.stop();
         model.removeAllElements();
         if (typed.isEmpty())
             return;
 
+        String strategyName = getPolicyKey();
+        int delay = policy.getDelay(strategyName, typed.length());
+        if (delay == SuggestionPolicy.SKIP) {
+            hidePopup();
+            return;
+        }
+        suggestionTimer.setInitialDelay(delay);
+        suggestionTimer.start();
+    }
+
+    /** Returns the name under which the policy keeps latencies: multi-strategy matches take as long as the slowest
+     * strategy, up to the deadline, so they are tracked apart from matches with the selected strategy alone.
+     */
+    private String getPolicyKey() {
+        if (main.isMultiStrategy())
+            return "multi";
+        MatchingStrategy strategy = main.getSelectedStrategy();
+        return strategy == null ? "" : strategy.getName();
+    }
+
+    private void requestSuggestions() {
+        final String typed = textField.getText();
+        if (typed.isEmpty())
+            return;
+        final String strategyName = getPolicyKey();
+        final int limit = policy.getSuggestionLimit();
+
         new SwingWorker<Set<String>, String>() {
             String word = typed;
+            long latency;
+            int received;
 
             @Override
             protected Set<String> doInBackground() throws Exception {
+                long start = System.nanoTime();
+                // One more match than shown tells whether the server had more
+                Collection<String> found = main.getMatchList(word, limit + 1);
+                latency = System.nanoTime() - start;
+                received = found.size();
+
                 Set<String> matches = new LinkedHashSet<>();
                 matches.add(word);
-                matches.addAll(main.getMatchList(word));
+                for (String match : found) {
+                    if (matches.size() > limit)
+                        break;
+                    matches.add(match);
+                }
                 return matches;
             }
 
             @Override
             protected void done() {
-                // If user typed another character since this worker started, stop
-                if (!textField.getText().equals(word)) return;
                 try {
-                    for (String match : this.get()) {
+                    Set<String> matches = this.get();
+                    policy.record(strategyName, word.length(), latency / 1e6, Math.min(received, limit),
+                            received > limit);
+                    // If user typed another character since this worker started, stop
+                    if (!textField.getText().equals(word)) return;
+                    for (String match : matches) {
                         model.addElement(match);
                     }
                     if (model.getSize() > 1)
@@ -90,6 +145,7 @@ public class WordSearchField extends JComboBox<String> implements DocumentListen
                     else
                         hidePopup();
                 } catch (ExecutionException e) {
+                    policy.recordFailure();
                     main.handleException(e.getCause());
                 } catch (InterruptedException e) {
                     e.printStackTrace();